@@ -0,0 +1,207 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.Git;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the phases of an autopush run one by one: scanning the working copy, staging the changes, committing and
+ * pushing to a local bare repository. Each phase runs once per iteration on a {@link SyntheticRepository}. Before
+ * the iteration, the given number of files is modified and the phases preceding the measured one are performed;
+ * afterwards the remaining phases are performed, so that every iteration starts with a clean working copy.
+ * <p>
+ * Build the autopush jar with "mvn install" first, then run e.g.
+ * <pre>
+ * mvn -f benchmarks/pom.xml package
+ * cd benchmarks/target
+ * java -jar benchmarks.jar PipelineBenchmark
+ * </pre>
+ * By default, both backends are measured on 100000 files of which 100 are changed, with a version 2 index that is
+ * not split. The "cli" backend runs the git binary found on the PATH and ignores the index format parameters, so
+ * measure those on the JGit backend only. The parameters are crossed, so pass only the values of interest, e.g.
+ * <pre>
+ * java -jar benchmarks.jar PipelineBenchmark -p files=10000,100000,1000000 -p changedFiles=1,100,10000
+ * java -jar benchmarks.jar PipelineBenchmark -p backend=jgit -p indexVersion=2,4 -p splitIndex=false,true
+ * </pre>
+ *
+ * @author Alexander Erben
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class PipelineBenchmark {
+
+    private static final int SCAN = 0;
+
+    private static final int STAGE = 1;
+
+    private static final int COMMIT = 2;
+
+    private static final int PUSH = 3;
+
+    private static final int DONE = 4;
+
+    /**
+     * A synthetic repository with a worker for it. The untracked files of the repository are pushed once when the
+     * trial starts.
+     */
+    @State(Scope.Benchmark)
+    public abstract static class RepositoryState {
+
+        @Param({"100000"})
+        public int files;
+
+        @Param({"100"})
+        public int changedFiles;
+
+        /**
+         * The backend that performs the phases, "jgit" or "cli"
+         */
+        @Param({"jgit", "cli"})
+        public String backend;
+
+        /**
+         * The version the JGit backend writes the index in, 2 or 4
+         */
+        @Param({"2"})
+        public int indexVersion;
+
+        /**
+         * If set, the JGit backend writes a split index
+         */
+        @Param({"false"})
+        public boolean splitIndex;
+
+        SyntheticRepository repository;
+
+        RepositoryWorker worker;
+
+        ChangeSet changeSet;
+
+        /**
+         * @return the phase that is measured
+         */
+        abstract int phase();
+
+        @Setup(Level.Trial)
+        public void createRepository() throws Exception {
+            this.repository = SyntheticRepository.create(this.files);
+            this.worker = new RepositoryWorker(this.repository.definition());
+            if (!"cli".equals(this.backend)) {
+                this.worker.setIndexFormat(this.indexVersion, this.splitIndex);
+            }
+            this.worker.setupRepository();
+            if ("cli".equals(this.backend)) {
+                this.worker.setBackend(new CliGitBackend(this.worker.getRepository(), "git"));
+            } else {
+                this.worker.setBackend(new JGitBackend(Git.wrap(this.worker.getRepository())));
+            }
+            this.worker.autopush();
+        }
+
+        @Setup(Level.Iteration)
+        public void prepare() throws Exception {
+            this.repository.modify(this.changedFiles);
+            run(SCAN, phase());
+        }
+
+        @TearDown(Level.Iteration)
+        public void complete() throws Exception {
+            run(phase(), DONE);
+        }
+
+        @TearDown(Level.Trial)
+        public void deleteRepository() throws Exception {
+            this.repository.delete();
+        }
+
+        /**
+         * Perform the phases from the first one (inclusive) to the last one (exclusive).
+         */
+        private void run(final int first, final int last) throws Exception {
+            for (int phase = first; phase < last; phase++) {
+                switch (phase) {
+                    case SCAN:
+                        this.changeSet = this.worker.scan(new DirtyPaths());
+                        break;
+                    case STAGE:
+                        this.worker.stage(this.changeSet);
+                        break;
+                    case COMMIT:
+                        this.worker.commit();
+                        break;
+                    case PUSH:
+                        this.worker.push();
+                        break;
+                }
+            }
+        }
+    }
+
+    public static class ScanState extends RepositoryState {
+
+        @Override
+        int phase() {
+            return SCAN;
+        }
+    }
+
+    public static class StageState extends RepositoryState {
+
+        @Override
+        int phase() {
+            return STAGE;
+        }
+    }
+
+    public static class CommitState extends RepositoryState {
+
+        @Override
+        int phase() {
+            return COMMIT;
+        }
+    }
+
+    public static class PushState extends RepositoryState {
+
+        @Override
+        int phase() {
+            return PUSH;
+        }
+    }
+
+    @Benchmark
+    public ChangeSet scan(final ScanState state) throws Exception {
+        return state.worker.scan(new DirtyPaths());
+    }
+
+    @Benchmark
+    public void stage(final StageState state) throws Exception {
+        state.worker.stage(state.changeSet);
+    }
+
+    @Benchmark
+    public void commit(final CommitState state) throws Exception {
+        state.worker.commit();
+    }
+
+    @Benchmark
+    public void push(final PushState state) throws Exception {
+        state.worker.push();
+    }
+}
@@ -0,0 +1,121 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FileUtils;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.lang.String.format;
+
+/**
+ * A working copy with a configurable number of files and a local bare remote repository, reachable by a file:// URL.
+ * Files are spread over two levels of directories with 100 entries each, e.g. d00/d42/f0004217.txt.
+ *
+ * @author Alexander Erben
+ */
+public class SyntheticRepository {
+
+    private static final int ENTRIES_PER_DIRECTORY = 100;
+
+    private final Path root;
+
+    private final Path workTree;
+
+    private final int files;
+
+    /**
+     * Counts the modifications, so that every modification writes new content
+     */
+    private int revision;
+
+    /**
+     * Position of the next file to modify
+     */
+    private int cursor;
+
+    private SyntheticRepository(final Path root, final int files) {
+        this.root = root;
+        this.workTree = root.resolve("work");
+        this.files = files;
+    }
+
+    /**
+     * Create the remote and the working copy in a new temporary directory. The working copy contains a single
+     * commit that has been pushed, plus the given number of files that are not tracked yet.
+     */
+    public static SyntheticRepository create(final int files)
+            throws IOException, GitAPIException, URISyntaxException {
+        final SyntheticRepository repository =
+                new SyntheticRepository(Files.createTempDirectory("autopush-benchmark"), files);
+        repository.init();
+        return repository;
+    }
+
+    public Path getWorkTree() {
+        return workTree;
+    }
+
+    /**
+     * Create a definition that pushes the working copy to the master branch of its remote.
+     */
+    public RepositoryDefinition definition() {
+        return new RepositoryDefinition(this.workTree.toString(), "origin", "master", "0 0 0 * * *");
+    }
+
+    /**
+     * Write new content to the given number of files. Consecutive calls modify different files, so that the
+     * modifications spread over the whole working copy.
+     */
+    public void modify(final int count) throws IOException {
+        this.revision++;
+        for (int i = 0; i < count; i++) {
+            write(this.cursor);
+            this.cursor = (this.cursor + 7919) % this.files; // a prime stride visits every directory
+        }
+    }
+
+    public void delete() throws IOException {
+        FileUtils.delete(this.root.toFile(), FileUtils.RECURSIVE | FileUtils.RETRY);
+    }
+
+    private void init() throws IOException, GitAPIException, URISyntaxException {
+        final Path remote = this.root.resolve("remote.git");
+        Git.init().setBare(true).setDirectory(remote.toFile()).call().getRepository().close();
+        final Git git = Git.init().setDirectory(this.workTree.toFile()).call();
+        try {
+            final StoredConfig config = git.getRepository().getConfig();
+            final RemoteConfig origin = new RemoteConfig(config, "origin");
+            origin.addURI(new URIish(remote.toUri().toURL()));
+            origin.addFetchRefSpec(new RefSpec("+refs/heads/*:refs/remotes/origin/*"));
+            origin.update(config);
+            config.save();
+            Files.write(this.workTree.resolve("README"), "benchmark".getBytes(StandardCharsets.UTF_8));
+            git.add().addFilepattern("README").call();
+            git.commit().setMessage("Initial commit").setAuthor("autopush", "autopush@github.com").call();
+            git.push().setRemote("origin").call();
+        } finally {
+            git.getRepository().close();
+        }
+        for (int i = 0; i < this.files; i++) {
+            write(i);
+        }
+    }
+
+    private void write(final int file) throws IOException {
+        final Path path = this.workTree.resolve(format("d%02d/d%02d/f%07d.txt",
+                file / (ENTRIES_PER_DIRECTORY * ENTRIES_PER_DIRECTORY) % ENTRIES_PER_DIRECTORY,
+                file / ENTRIES_PER_DIRECTORY % ENTRIES_PER_DIRECTORY,
+                file));
+        Files.createDirectories(path.getParent());
+        Files.write(path, format("file %d revision %d%n", file, this.revision).getBytes(StandardCharsets.UTF_8));
+    }
+}
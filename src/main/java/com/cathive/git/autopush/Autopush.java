@@ -1,47 +1,71 @@
 package com.cathive.git.autopush;
 
-import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
 import org.springframework.scheduling.annotation.EnableScheduling;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 
 import javax.annotation.PostConstruct;
 import java.io.IOException;
-import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Strings.isNullOrEmpty;
 import static java.lang.String.format;
-import static java.nio.file.Files.exists;
-import static java.nio.file.Files.isDirectory;
-import static org.eclipse.jgit.api.ListBranchCommand.ListMode.REMOTE;
 
 /**
  * Autopush is an application that performs scheduled commits of a repository and pushes all changes to a remote
  * repository. It is meant to be a convenient cross-platform-application for backup purposes using git.
+ * A single process can back up any number of repositories; all of them share one scheduler and its thread pool.
  *
  * @author Alexander Erben
  */
 @SpringBootApplication
 @EnableScheduling
-public class Autopush {
+@EnableConfigurationProperties
+public class Autopush implements SchedulingConfigurer {
 
     private static Logger LOG = Logger.getLogger(Autopush.class.getCanonicalName());
 
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String JGIT_BACKEND = "jgit";
+
+    private static final String CLI_BACKEND = "cli";
+
     /**
-     * This value has no default. Provide it as a command line parameter.
+     * Path of a single repository to back up. This value has no default. Provide it as a command line parameter or
+     * configure a list of repositories in autopush.repositories instead.
      */
-    @Value("${repository.path}")
+    @Value("${repository.path:}")
     private String repositoryPath;
 
     /**
-     * The default of this value is "origin". Set it in the CLI parameter if this default is not suitable.
+     * The default of this value is "origin". Set it in the CLI parameter if this default is not suitable. If empty,
+     * repositories have no remote repository and need a bundle directory instead.
      */
     @Value("${remote.name}")
     private String remoteName;
@@ -53,100 +77,388 @@ public class Autopush {
     private String branchName;
 
     /**
-     * The cron expression for the interval of autopush attempts. Defaults to * * *\3 * *, thus every three hours.
+     * The cron expression for the interval of autopush attempts. Defaults to 0 0 *\3 * * *, thus every three hours.
      * The expression consists of 6 components starting with seconds.
      */
     @Value("${interval.cron}")
     private String intervalCron;
 
     /**
-     * Reference to the git repository to autopush
+     * Cron expressions that fire more often than once per minute are rejected, unless this value is set. Then only a
+     * warning is logged.
+     */
+    @Value("${interval.allow-sub-minute}")
+    private boolean allowSubMinuteInterval;
+
+    /**
+     * Number of threads shared by all repositories for their autopush runs.
+     */
+    @Value("${scheduler.pool-size}")
+    private int schedulerPoolSize;
+
+    /**
+     * Milliseconds without filesystem events after which a burst of changes is committed and pushed in watch mode.
+     * Set to 0 to only run on the cron schedule.
+     */
+    @Value("${debounce.quiet-period}")
+    private long debounceQuietPeriod;
+
+    /**
+     * Maximum milliseconds between the first filesystem event of a burst and the commit of its changes.
+     */
+    @Value("${debounce.max-delay}")
+    private long debounceMaxDelay;
+
+    /**
+     * If set, runs only contact the remote repository if there are changes to push. Defaults to false, thus every run
+     * starts with a fetch.
+     */
+    @Value("${fetch.deferred}")
+    private boolean fetchDeferred;
+
+    /**
+     * Milliseconds after which a deferred fetch is performed anyway, to validate the access to the remote repository.
+     */
+    @Value("${fetch.validation-interval}")
+    private long fetchValidationInterval;
+
+    /**
+     * Number of threads that scan the working copy of a repository. Defaults to 1, thus the working copy is scanned
+     * by a single status command.
+     */
+    @Value("${status.parallelism}")
+    private int statusParallelism;
+
+    /**
+     * Number of threads that hash and compress the files to stage. Defaults to 1, thus files are staged one by one.
+     */
+    @Value("${stage.parallelism}")
+    private int stageParallelism;
+
+    /**
+     * If set, the objects of each run are written into pack files instead of loose objects. Defaults to false.
+     */
+    @Value("${objects.pack}")
+    private boolean packObjects;
+
+    /**
+     * If set, the tree of each commit is built from the tree of HEAD and the changed files instead of the whole index,
+     * and the index is edited in place by an {@link IndexFileRepository}. Defaults to false.
+     */
+    @Value("${commit.from-head}")
+    private boolean commitFromHead;
+
+    /**
+     * The version the index of a repository is written in: 2, 3 or 4, which compresses the paths. Defaults to 0,
+     * which keeps the version of the existing index. Only applies to the JGit backend, which leaves the index to JGit
+     * unless version 4 or a split index is configured.
+     */
+    @Value("${index.version}")
+    private int indexVersion;
+
+    /**
+     * If set, the index of a repository is split into a shared index and the changes since, so that a run only writes
+     * the entries it changed. An index that has been split by git stays split either way. Defaults to false. Only
+     * applies to the JGit backend.
+     */
+    @Value("${index.split}")
+    private boolean splitIndex;
+
+    /**
+     * Cron expression of the checks whether repositories need maintenance. Maintenance is disabled if empty.
+     */
+    @Value("${maintenance.cron}")
+    private String maintenanceCron;
+
+    /**
+     * Maintenance is due once a repository has more loose objects
+     */
+    @Value("${maintenance.loose-objects}")
+    private long maintenanceLooseObjects;
+
+    /**
+     * Maintenance is due once a repository has more pack files
+     */
+    @Value("${maintenance.pack-files}")
+    private long maintenancePackFiles;
+
+    /**
+     * Milliseconds after which maintenance is due anyway
+     */
+    @Value("${maintenance.max-age}")
+    private long maintenanceMaxAge;
+
+    /**
+     * Share of one CPU that the maintenance of a repository may use on average
+     */
+    @Value("${maintenance.cpu-budget}")
+    private double maintenanceCpuBudget;
+
+    /**
+     * Number of attempts of a fetch or push that cannot reach the remote repository, including the first one
+     */
+    @Value("${retry.max-attempts}")
+    private int retryMaxAttempts;
+
+    /**
+     * Maximum milliseconds to wait before the first retry, doubled for every further retry
+     */
+    @Value("${retry.base-delay}")
+    private long retryBaseDelay;
+
+    /**
+     * Upper bound of the maximum milliseconds to wait before a retry
+     */
+    @Value("${retry.max-delay}")
+    private long retryMaxDelay;
+
+    /**
+     * Number of consecutive failures to reach a remote repository after which it is not contacted for a while
      */
-    private Git repository;
+    @Value("${circuit-breaker.failure-threshold}")
+    private int circuitBreakerFailureThreshold;
+
+    /**
+     * Maximum milliseconds a remote repository is not contacted after it failed too often
+     */
+    @Value("${circuit-breaker.open-duration}")
+    private long circuitBreakerOpenDuration;
+
+    /**
+     * Names of further remote repositories that every commit is pushed to, in parallel to the remote repository.
+     * Defaults to none.
+     */
+    @Value("${push.mirrors}")
+    private String[] pushMirrors;
+
+    /**
+     * Seconds after which a stalled push fails. If 0, pushes wait forever.
+     */
+    @Value("${push.timeout}")
+    private int pushTimeout;
+
+    /**
+     * Directory that every commit is written to as a git bundle, e.g. on hosts that cannot reach any remote
+     * repository. Defaults to none.
+     */
+    @Value("${bundle.directory}")
+    private String bundleDirectory;
+
+    /**
+     * Milliseconds after which a full bundle is written instead of an incremental one
+     */
+    @Value("${bundle.full-interval}")
+    private long bundleFullInterval;
+
+    /**
+     * Number of full bundles kept along with the incremental bundles written after them
+     */
+    @Value("${bundle.keep-full}")
+    private int bundleKeepFull;
+
+    /**
+     * The backend that performs the git operations of a repository: "jgit" to use JGit in process, or "cli" to run
+     * the native git binary. Defaults to "jgit".
+     */
+    @Value("${git.backend}")
+    private String gitBackend;
+
+    /**
+     * The git binary run by the "cli" backend, either a path or a name looked up on the PATH
+     */
+    @Value("${git.executable}")
+    private String gitExecutable;
+
+    @Autowired
+    private AutopushProperties properties;
+
+    @Autowired
+    private RepositoryWatcher watcher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /**
+     * One worker for each configured repository
+     */
+    private final List<RepositoryWorker> workers = new ArrayList<>();
+
+    /**
+     * One circuit breaker for each remote URL
+     */
+    private final Map<String, CircuitBreaker> circuitBreakers = new HashMap<>();
 
     public static void main(String[] args) {
         SpringApplication.run(Autopush.class, args);
     }
 
     /**
-     * Setup the {@link org.eclipse.jgit.api.Git}-repository.
-     * Preconditions: the configured repository.path points to an existing directory containing a non-bare
-     * git repository. A remote repository by the name given in the value remote.name must exist and a remote tracking
-     * branch by the name of the value remote.branch must exist.
-     * @throws IOException
-     * @throws GitAPIException
+     * Pushes to the targets of a repository at once, shared by all repositories.
      */
-    @PostConstruct
-    public void setupRepository() throws IOException, GitAPIException {
-        final Path path = Paths.get(this.repositoryPath);
-        checkArgument(exists(path) && isDirectory(path), "Directory to push must exist! Was: " + this.repositoryPath);
-        this.repository = Git.open(path.toFile());
-        checkState(this.repository
-                        .branchList()
-                        .setListMode(REMOTE)
-                        .call().stream()
-                        .allMatch((ref) -> ref.getName().contains(this.remoteName + "/" + this.branchName)),
-                format("Repository does not contain a remote \"%s\" with branch \"%s\"",
-                        this.remoteName, this.branchName));
-        autopush(); // test setup and perform one push
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService pushExecutor() {
+        return Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("autopush-push-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * The pool that scans the working copies if status.parallelism is greater than 1, shared by all repositories.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool scanPool() {
+        return new ForkJoinPool(Math.max(1, this.statusParallelism));
     }
 
     /**
-     * Check if the working copy of the specified repository contains changes.
-     * Add them to the index if present, perform a commit and perform a push to the remote repository.
-     */
-    @Scheduled(cron = "${interval.cron}")
-    public void autopush() {
-        try {
-            LOG.info("Validating access to remote repository.");
-            this.repository.fetch().call();
-            if (repositoryChanged()) {
-                LOG.info("Changes detected in repository.");
-                addAll();
-                commit();
-                push();
-                LOG.info("Successfully updated remote repository.");
-            } else {
-                LOG.info("Remote repository is up to date!");
+     * The pool that stages files if stage.parallelism is greater than 1, shared by all repositories.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ForkJoinPool stagePool() {
+        return new ForkJoinPool(Math.max(1, this.stageParallelism));
+    }
+
+    @Bean(destroyMethod = "shutdown")
+    public ThreadPoolTaskScheduler taskScheduler() {
+        final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(this.schedulerPoolSize);
+        scheduler.setThreadNamePrefix("autopush-");
+        return scheduler;
+    }
+
+    /**
+     * Setup a worker for every configured repository, which is either the single repository given in repository.path
+     * or the list in autopush.repositories. Each worker performs one push right after its setup.
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    @PostConstruct
+    public void setupRepositories() throws IOException, GitAPIException {
+        final List<RepositoryDefinition> definitions = new ArrayList<>(this.properties.getRepositories());
+        if (!isNullOrEmpty(this.repositoryPath)) {
+            definitions.add(new RepositoryDefinition(this.repositoryPath, null, null, null));
+        }
+        checkState(!definitions.isEmpty(),
+                "No repository configured! Provide repository.path or autopush.repositories.");
+        for (final RepositoryDefinition definition : definitions) {
+            final RepositoryWorker worker = new RepositoryWorker(
+                    definition.withDefaults(this.remoteName, this.branchName, this.intervalCron,
+                            Arrays.asList(this.pushMirrors), this.bundleDirectory, this.gitBackend),
+                    new RepositoryMetrics(this.meterRegistry, definition.getPath()));
+            validateSchedule(worker.getDefinition());
+            if (JGIT_BACKEND.equals(worker.getDefinition().getBackend())) {
+                worker.setIndexFormat(this.indexVersion, this.splitIndex);
+                if (this.commitFromHead) {
+                    worker.editIndexInPlace();
+                }
+            }
+            worker.setupRepository();
+            worker.setBackend(backend(worker));
+            worker.setRetryPolicy(new RetryPolicy(this.retryMaxAttempts, this.retryBaseDelay, this.retryMaxDelay,
+                    taskScheduler(), worker::autopush));
+            worker.setPushTargets(pushTargets(worker), pushExecutor());
+            if (this.fetchDeferred) {
+                worker.deferFetch(this.fetchValidationInterval);
             }
-        } catch (final GitAPIException e) {
-            LOG.severe(Throwables.getStackTraceAsString(e));
-            throw new RuntimeException(e);
+            if (!isNullOrEmpty(this.maintenanceCron)) {
+                worker.setMaintenance(new RepositoryMaintenance(worker.getRepository(), this.maintenanceLooseObjects,
+                        this.maintenancePackFiles, this.maintenanceMaxAge, this.maintenanceCpuBudget));
+            }
+            if (this.watcher.isEnabled()) {
+                if (this.debounceQuietPeriod > 0) {
+                    worker.setDebouncer(new Debouncer(taskScheduler(), worker::autopush,
+                            this.debounceQuietPeriod, this.debounceMaxDelay));
+                }
+                this.watcher.register(worker);
+            }
+            this.workers.add(worker);
         }
+        LOG.info(format("Set up %d repositories.", this.workers.size()));
+        final ThreadPoolTaskScheduler scheduler = taskScheduler();
+        this.workers.forEach((worker) -> scheduler.execute(worker::autopush)); // test setup and perform one push
     }
 
     /**
-     * Add all files to the index
+     * Create the backend of a worker. status.parallelism, stage.parallelism, objects.pack, commit.from-head and the
+     * index format only apply to the JGit backend.
      */
-    private void addAll() throws GitAPIException {
-        this.repository.add()
-                .addFilepattern(".")
-                .call();
+    private GitBackend backend(final RepositoryWorker worker) {
+        final String backend = worker.getDefinition().getBackend();
+        if (CLI_BACKEND.equals(backend)) {
+            return new CliGitBackend(worker.getRepository(), this.gitExecutable);
+        }
+        checkArgument(JGIT_BACKEND.equals(backend), format("Unknown backend \"%s\" of repository %s",
+                backend, worker.getDefinition().getPath()));
+        final JGitBackend jgit = new JGitBackend(Git.wrap(worker.getRepository()));
+        if (this.statusParallelism > 1) {
+            jgit.scanInParallel(scanPool());
+        }
+        if (this.packObjects) {
+            jgit.packObjects();
+        }
+        if (this.stageParallelism > 1) {
+            jgit.stageInParallel(stagePool());
+        }
+        if (this.commitFromHead) {
+            jgit.commitFromHead();
+        }
+        return jgit;
     }
 
     /**
-     * Perform a git commit with default author and message strings
+     * Create the push targets of a worker: its remote repository, followed by its mirrors and its bundle directory.
+     * Remote repositories with the same URL share a circuit breaker.
      */
-    private void commit() throws GitAPIException {
-        this.repository.commit()
-                .setMessage("Commit by autopush")
-                .setAuthor("autopush", "autopush@github.com")
-                .call();
+    private List<PushTarget> pushTargets(final RepositoryWorker worker) {
+        final RepositoryDefinition definition = worker.getDefinition();
+        final List<PushTarget> targets = new ArrayList<>();
+        final Iterable<String> remotes = isNullOrEmpty(definition.getRemote()) ? definition.getMirrors()
+                : Iterables.concat(Collections.singleton(definition.getRemote()), definition.getMirrors());
+        for (final String remote : remotes) {
+            final String remoteUrl = worker.getRepository().getConfig().getString("remote", remote, "url");
+            checkState(remoteUrl != null, format("Repository %s does not contain a remote \"%s\"",
+                    definition.getPath(), remote));
+            targets.add(new RemotePushTarget(remote, definition.getBranch(), this.pushTimeout,
+                    this.circuitBreakers.computeIfAbsent(remoteUrl, (url) -> new CircuitBreaker(url,
+                            this.circuitBreakerFailureThreshold, this.circuitBreakerOpenDuration))));
+        }
+        if (!isNullOrEmpty(definition.getBundleDirectory())) {
+            targets.add(new BundlePushTarget(Paths.get(definition.getBundleDirectory()),
+                    BundlePushTarget.prefix(worker.getRepository().getWorkTree().toPath()), definition.getBranch(),
+                    this.bundleFullInterval, this.bundleKeepFull));
+        }
+        checkState(!targets.isEmpty(), format("Repository %s has neither a remote repository nor a bundle directory",
+                definition.getPath()));
+        return targets;
     }
 
     /**
-     * Push the master to the remote repository
+     * Reject cron expressions that fire more often than once per minute, as every run may contact the remote
+     * repository.
      */
-    private void push() throws GitAPIException {
-        this.repository.push().call();
+    private void validateSchedule(final RepositoryDefinition definition) {
+        final long interval = Schedules.shortestInterval(definition.getCron());
+        if (interval >= MINUTE) {
+            return;
+        }
+        final String message = format("Cron expression \"%s\" of repository %s fires every %d ms.",
+                definition.getCron(), definition.getPath(), interval);
+        checkArgument(this.allowSubMinuteInterval,
+                message + " Set interval.allow-sub-minute=true if this is intended.");
+        LOG.warning(message);
     }
 
     /**
-     * Check if the working copy is not clean, meaning that changes happened to the working copy
-     * making an update of the remote branch necessary.
-     * @return {@link true} if the working copy contains changes, {@link false} if not.
+     * Register the autopush run of every repository with its cron expression, and its maintenance with the
+     * maintenance cron expression.
      */
-    private boolean repositoryChanged() throws GitAPIException {
-        return !this.repository.status().call().isClean();
+    @Override
+    public void configureTasks(final ScheduledTaskRegistrar registrar) {
+        registrar.setTaskScheduler(taskScheduler());
+        this.workers.forEach((worker) -> registrar.addCronTask(worker::autopush, worker.getDefinition().getCron()));
+        if (!isNullOrEmpty(this.maintenanceCron)) {
+            this.workers.forEach((worker) -> registrar.addCronTask(worker::maintain, this.maintenanceCron));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,32 @@
+package com.cathive.git.autopush;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the list of repositories that are backed up by a single autopush process, e.g.
+ * <pre>
+ * autopush.repositories[0].path=/data/first
+ * autopush.repositories[1].path=/data/second
+ * autopush.repositories[1].branch=backup
+ * </pre>
+ *
+ * @author Alexander Erben
+ */
+@Component
+@ConfigurationProperties(prefix = "autopush")
+public class AutopushProperties {
+
+    private List<RepositoryDefinition> repositories = new ArrayList<>();
+
+    public List<RepositoryDefinition> getRepositories() {
+        return repositories;
+    }
+
+    public void setRepositories(final List<RepositoryDefinition> repositories) {
+        this.repositories = repositories;
+    }
+}
@@ -0,0 +1,229 @@
+package com.cathive.git.autopush;
+
+import com.google.common.hash.Hashing;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.BundleWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+
+/**
+ * Writes commits as git bundles into a local or mounted directory, for hosts that cannot reach any remote repository.
+ * Every push writes an incremental bundle that only contains the commits since the last bundle, which is recorded in
+ * the tracking ref. Once the last full bundle is older than the full interval, or if the directory contains none, a
+ * full bundle of the whole history is written instead, and all bundles older than the oldest full bundle to keep are
+ * pruned. A restore therefore needs the newest full bundle and all incremental bundles written after it.
+ * <p>
+ * Bundles are named after the working copy, their creation time and their kind, e.g.
+ * project-1a2b3c4d-20150101T120000000Z-incremental.bundle, see {@link #prefix(Path)}. The pack data is streamed into
+ * a temporary file in the directory, which is renamed once it is complete, so that a bundle is either missing or
+ * complete.
+ *
+ * @author Alexander Erben
+ */
+public class BundlePushTarget implements PushTarget {
+
+    private static Logger LOG = Logger.getLogger(BundlePushTarget.class.getCanonicalName());
+
+    private static final String TRACKING_REF = "refs/autopush/bundle";
+
+    private static final String FULL = "full";
+
+    private static final String INCREMENTAL = "incremental";
+
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmssSSS'Z'")
+            .withZone(ZoneOffset.UTC);
+
+    private final Path directory;
+
+    private final String prefix;
+
+    private final String branch;
+
+    private final long fullInterval;
+
+    private final int keepFull;
+
+    /**
+     * Matches the names of the bundles of this target
+     */
+    private final Pattern bundleName;
+
+    /**
+     * @param directory    the directory to write the bundles to, which must exist
+     * @param prefix       the prefix of the names of the bundles, which tells them apart from those of other
+     *                     repositories in the same directory
+     * @param branch       name of the branch the bundles contain
+     * @param fullInterval milliseconds after which a full bundle is written again
+     * @param keepFull     number of full bundles that are kept along with the incremental bundles written after them
+     */
+    public BundlePushTarget(final Path directory, final String prefix, final String branch, final long fullInterval,
+                            final int keepFull) {
+        checkArgument(keepFull > 0, "At least one full bundle must be kept! Was: " + keepFull);
+        this.directory = directory;
+        this.prefix = prefix;
+        this.branch = branch;
+        this.fullInterval = fullInterval;
+        this.keepFull = keepFull;
+        this.bundleName = Pattern.compile(Pattern.quote(prefix) + "-(\\d{8}T\\d{9}Z)-(" + FULL + "|" + INCREMENTAL
+                + ")\\.bundle");
+    }
+
+    /**
+     * @param workTree the working copy of a repository
+     * @return a prefix of bundle names that is unique for the working copy: its directory name, followed by a hash of
+     * its absolute path, so that repositories in directories of the same name do not prune each other's bundles
+     */
+    public static String prefix(final Path workTree) {
+        final Path absolute = workTree.toAbsolutePath().normalize();
+        return format("%s-%s", absolute.getFileName(),
+                Hashing.sha1().hashString(absolute.toString(), UTF_8).toString().substring(0, 8));
+    }
+
+    @Override
+    public String getName() {
+        return "bundle";
+    }
+
+    @Override
+    public String getTrackingRef() {
+        return TRACKING_REF;
+    }
+
+    /**
+     * @return {@link CircuitBreaker#DISABLED}, as a local directory does not become unreachable temporarily
+     */
+    @Override
+    public CircuitBreaker getCircuitBreaker() {
+        return CircuitBreaker.DISABLED;
+    }
+
+    /**
+     * Write a bundle of the given commit, which is full if one is due and incremental otherwise.
+     * @throws IOException if the directory does not exist or the bundle could not be written
+     */
+    @Override
+    public void push(final GitBackend backend, final ObjectId head, final RepositoryMetrics metrics)
+            throws IOException {
+        if (!Files.isDirectory(this.directory)) {
+            throw new IOException("Bundle directory does not exist: " + this.directory); // e.g. not mounted
+        }
+        final Repository repository = backend.getRepository();
+        final List<Path> bundles = list();
+        final BundleWriter writer = new BundleWriter(repository);
+        writer.include(R_HEADS + this.branch, head);
+        final RevCommit prerequisite = isFullDue(bundles) ? null : lastBundled(repository, head);
+        if (prerequisite != null) {
+            writer.assume(prerequisite);
+        }
+        final String name = format("%s-%s-%s.bundle", this.prefix, TIMESTAMP.format(Instant.now()),
+                prerequisite == null ? FULL : INCREMENTAL);
+        final Path temporary = Files.createTempFile(this.directory, this.prefix, ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                 OutputStream out = new BufferedOutputStream(file, 64 * 1024)) {
+                writer.writeBundle(metrics.pushMonitor(), out);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporary, this.directory.resolve(name), ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        LOG.info(format("Wrote bundle %s", this.directory.resolve(name)));
+        if (prerequisite == null) {
+            prune(list());
+        }
+    }
+
+    /**
+     * @return the last bundled commit if it is an ancestor of the given commit, otherwise {@code null}
+     */
+    private RevCommit lastBundled(final Repository repository, final ObjectId head) throws IOException {
+        final ObjectId last = repository.resolve(TRACKING_REF);
+        if (last == null || !repository.hasObject(last)) {
+            return null;
+        }
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            final RevCommit commit = walk.parseCommit(last);
+            return walk.isMergedInto(commit, walk.parseCommit(head)) ? commit : null;
+        } finally {
+            walk.release();
+        }
+    }
+
+    /**
+     * @param bundles the bundles of this target, oldest first
+     * @return {@code true} if there is no full bundle or the newest one is older than the full interval
+     */
+    private boolean isFullDue(final List<Path> bundles) {
+        for (int i = bundles.size() - 1; i >= 0; i--) {
+            final Matcher matcher = match(bundles.get(i));
+            if (FULL.equals(matcher.group(2))) {
+                final Instant created = Instant.from(TIMESTAMP.parse(matcher.group(1)));
+                return System.currentTimeMillis() - created.toEpochMilli() >= this.fullInterval;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Delete all bundles that are older than the oldest full bundle to keep.
+     * @param bundles the bundles of this target, oldest first
+     */
+    private void prune(final List<Path> bundles) throws IOException {
+        final List<Path> full = new ArrayList<>();
+        bundles.stream().filter((bundle) -> FULL.equals(match(bundle).group(2))).forEach(full::add);
+        if (full.size() <= this.keepFull) {
+            return;
+        }
+        final Path oldestKept = full.get(full.size() - this.keepFull);
+        for (final Path bundle : bundles.subList(0, bundles.indexOf(oldestKept))) {
+            Files.delete(bundle);
+            LOG.info(format("Pruned bundle %s", bundle));
+        }
+    }
+
+    /**
+     * @return the bundles of this target, oldest first
+     */
+    private List<Path> list() throws IOException {
+        final List<Path> bundles = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory,
+                (path) -> this.bundleName.matcher(path.getFileName().toString()).matches())) {
+            stream.forEach(bundles::add);
+        }
+        Collections.sort(bundles); // the timestamps in the names sort chronologically
+        return bundles;
+    }
+
+    private Matcher match(final Path bundle) {
+        final Matcher matcher = this.bundleName.matcher(bundle.getFileName().toString());
+        matcher.matches();
+        return matcher;
+    }
+}
@@ -0,0 +1,270 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.UnmergedPathException;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.TreeFormatter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+
+/**
+ * Remembers the tree id of every directory of the index, like the cache-tree extension of git, so that writing the
+ * tree of the index only formats and hashes the directories along the paths changed since the last commit. All other
+ * directories are skipped by a binary search over the sorted index entries.
+ * <p>
+ * The tree ids are only valid for the index they were computed from, which is identified by its checksum. Edits of
+ * the index by autopush invalidate the directories of the edited paths and move the cache on to the checksum of the
+ * new index; any other change of the index, e.g. by a git process, is detected by a different checksum and clears the
+ * cache. The cache is kept in the file .git/autopush-cachetree between restarts.
+ *
+ * @author Alexander Erben
+ */
+public class CacheTree {
+
+    private static final Logger LOG = Logger.getLogger(CacheTree.class.getCanonicalName());
+
+    private static final String FILE_NAME = "autopush-cachetree";
+
+    private static final int MAGIC = 0x41504354; // "APCT"
+
+    private static final int VERSION = 1;
+
+    private final Repository repository;
+
+    private final File file;
+
+    /**
+     * The tree ids by directory path, which is empty for the root directory and ends with "/" otherwise
+     */
+    private final Map<String, ObjectId> trees = new HashMap<>();
+
+    /**
+     * Trees written by the last {@link #writeTree(MappedIndex, ObjectInserter)}, kept once they have been flushed
+     */
+    private final Map<String, ObjectId> written = new HashMap<>();
+
+    /**
+     * The checksum of the index the tree ids belong to, or {@code null} if unknown
+     */
+    private byte[] index;
+
+    /**
+     * Set if the tree ids have changed since they have been saved
+     */
+    private boolean changed;
+
+    public CacheTree(final Repository repository) {
+        this.repository = repository;
+        this.file = new File(repository.getDirectory(), FILE_NAME);
+    }
+
+    /**
+     * Read the cache file. A missing or unreadable file leaves the cache empty.
+     */
+    public synchronized void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warning(format("Ignoring invalid cache tree %s", this.file));
+                return;
+            }
+            final byte[] checksum = new byte[OBJECT_ID_LENGTH];
+            in.readFully(checksum);
+            final int count = in.readInt();
+            final byte[] id = new byte[OBJECT_ID_LENGTH];
+            for (int i = 0; i < count; i++) {
+                final byte[] path = new byte[in.readUnsignedShort()];
+                in.readFully(path);
+                in.readFully(id);
+                this.trees.put(new String(path, UTF_8), ObjectId.fromRaw(id));
+            }
+            this.index = checksum;
+        } catch (final FileNotFoundException e) {
+            // nothing cached yet
+        } catch (final IOException e) {
+            this.trees.clear();
+            LOG.warning(format("Ignoring unreadable cache tree %s: %s", this.file, e));
+        }
+    }
+
+    /**
+     * Write the cache file if the tree ids have changed.
+     * @throws IOException
+     */
+    public synchronized void save() throws IOException {
+        if (!this.changed || this.index == null) {
+            return;
+        }
+        final File temporary = File.createTempFile(FILE_NAME, ".tmp", this.repository.getDirectory());
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.write(this.index);
+                out.writeInt(this.trees.size());
+                final byte[] id = new byte[OBJECT_ID_LENGTH];
+                for (final Map.Entry<String, ObjectId> tree : this.trees.entrySet()) {
+                    final byte[] path = tree.getKey().getBytes(UTF_8);
+                    out.writeShort(path.length);
+                    out.write(path);
+                    tree.getValue().copyRawTo(id, 0);
+                    out.write(id);
+                }
+            }
+            Files.move(temporary.toPath(), this.file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+        this.changed = false;
+    }
+
+    /**
+     * Record an edit of the index. Must be called while the index is locked, before the edited index is committed.
+     * @param before the checksum of the index before the edit
+     * @param paths  the edited paths
+     * @param after  the checksum of the edited index
+     */
+    public synchronized void edited(final byte[] before, final Iterable<String> paths, final byte[] after) {
+        if (!Arrays.equals(before, this.index)) {
+            this.trees.clear();
+        } else {
+            for (final String path : paths) {
+                this.trees.remove("");
+                for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+                    this.trees.remove(path.substring(0, slash + 1));
+                }
+            }
+        }
+        this.index = after;
+        this.changed = true;
+    }
+
+    /**
+     * @param checksum the checksum of an index file
+     * @return {@code true} if the tree ids belong to the index with the given checksum
+     */
+    public synchronized boolean matches(final byte[] checksum) {
+        return checksum != null && Arrays.equals(checksum, this.index);
+    }
+
+    /**
+     * Forget all tree ids and start over with the index with the given checksum, e.g. after it has been committed
+     * without this cache.
+     */
+    public synchronized void reset(final byte[] checksum) {
+        this.trees.clear();
+        this.written.clear();
+        this.index = checksum;
+        this.changed = true;
+    }
+
+    /**
+     * Insert the trees of the index that are not cached. Like {@link DirCache#writeTree(ObjectInserter)}, but the
+     * new trees are only cached once {@link #flushed()} confirms that they have been written. Only the entries of
+     * directories that are not cached are decoded.
+     * @param index a locked index, whose checksum is read from its file
+     * @return the id of the root tree
+     * @throws UnmergedPathException if the index contains conflicts
+     */
+    public synchronized ObjectId writeTree(final MappedIndex index, final ObjectInserter inserter)
+            throws IOException {
+        final byte[] checksum = checksum(this.repository.getIndexFile());
+        if (!Arrays.equals(checksum, this.index)) {
+            this.trees.clear();
+            this.index = checksum;
+            this.changed = true;
+        }
+        this.written.clear();
+        return writeTree(index, "", 0, index.getEntryCount(), inserter);
+    }
+
+    /**
+     * Cache the trees of the last {@link #writeTree(MappedIndex, ObjectInserter)}, once its inserter has been flushed.
+     */
+    public synchronized void flushed() {
+        if (!this.written.isEmpty()) {
+            this.trees.putAll(this.written);
+            this.written.clear();
+            this.changed = true;
+        }
+    }
+
+    /**
+     * @param prefix the path of the directory, empty or ending with "/"
+     * @param start  the position of the first entry in the directory
+     * @param end    the position after the last entry in the directory
+     */
+    private ObjectId writeTree(final MappedIndex index, final String prefix, final int start, final int end,
+                               final ObjectInserter inserter) throws IOException {
+        final ObjectId cached = this.trees.get(prefix);
+        if (cached != null) {
+            return cached;
+        }
+        final TreeFormatter tree = new TreeFormatter();
+        for (int i = start; i < end; ) {
+            final DirCacheEntry entry = index.getEntry(i);
+            if (entry.getStage() != DirCacheEntry.STAGE_0) {
+                throw new UnmergedPathException(entry);
+            }
+            final String name = entry.getPathString().substring(prefix.length());
+            final int slash = name.indexOf('/');
+            if (slash < 0) {
+                tree.append(name, entry.getFileMode(), entry.getObjectId());
+                i++;
+            } else {
+                final String directory = prefix + name.substring(0, slash + 1);
+                // all paths of the directory sort before the directory path with its slash replaced by '0'
+                final int position = index.findEntry(directory.substring(0, directory.length() - 1) + '0');
+                final int directoryEnd = Math.min(end, position < 0 ? -(position + 1) : position);
+                tree.append(name.substring(0, slash), FileMode.TREE,
+                        writeTree(index, directory, i, directoryEnd, inserter));
+                i = directoryEnd;
+            }
+        }
+        final ObjectId id = inserter.insert(tree);
+        this.written.put(prefix, id);
+        return id;
+    }
+
+    /**
+     * @return the checksum at the end of an index file, or {@code null} if there is none
+     */
+    static byte[] checksum(final File indexFile) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(indexFile, "r")) {
+            if (in.length() < OBJECT_ID_LENGTH) {
+                return null;
+            }
+            final byte[] checksum = new byte[OBJECT_ID_LENGTH];
+            in.seek(in.length() - OBJECT_ID_LENGTH);
+            in.readFully(checksum);
+            return checksum;
+        } catch (final FileNotFoundException | EOFException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.cathive.git.autopush;
+
+import com.google.common.collect.ImmutableSet;
+import org.eclipse.jgit.api.Status;
+
+import java.util.Set;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+/**
+ * The changes of a working copy found by a single scan. Both the decision whether a commit is necessary and the
+ * staging of the changes are based on it, so that the working copy is only walked once per run.
+ *
+ * @author Alexander Erben
+ */
+public class ChangeSet {
+
+    /**
+     * Files that are not tracked yet and not ignored
+     */
+    private final Set<String> untracked;
+
+    /**
+     * Tracked files whose content or mode differ from the index
+     */
+    private final Set<String> modified;
+
+    /**
+     * Tracked files that have been deleted from the working copy
+     */
+    private final Set<String> removed;
+
+    /**
+     * Files whose changes are already staged in the index, but not committed yet
+     */
+    private final Set<String> staged;
+
+    /**
+     * A change set without any changes
+     */
+    public static final ChangeSet EMPTY = new ChangeSet(ImmutableSet.of(), ImmutableSet.of(), ImmutableSet.of(),
+            ImmutableSet.of());
+
+    public ChangeSet(final Set<String> untracked, final Set<String> modified, final Set<String> removed,
+                     final Set<String> staged) {
+        this.untracked = ImmutableSet.copyOf(untracked);
+        this.modified = ImmutableSet.copyOf(modified);
+        this.removed = ImmutableSet.copyOf(removed);
+        this.staged = ImmutableSet.copyOf(staged);
+    }
+
+    /**
+     * Create a change set from the result of a {@link org.eclipse.jgit.api.StatusCommand}.
+     */
+    public static ChangeSet of(final Status status) {
+        return new ChangeSet(status.getUntracked(),
+                status.getModified(),
+                status.getMissing(),
+                ImmutableSet.<String>builder()
+                        .addAll(status.getAdded())
+                        .addAll(status.getChanged())
+                        .addAll(status.getRemoved())
+                        .build());
+    }
+
+    public Set<String> getUntracked() {
+        return untracked;
+    }
+
+    public Set<String> getModified() {
+        return modified;
+    }
+
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    public Set<String> getStaged() {
+        return staged;
+    }
+
+    /**
+     * @return {@code true} if there is nothing to commit
+     */
+    public boolean isEmpty() {
+        return untracked.isEmpty() && modified.isEmpty() && removed.isEmpty() && staged.isEmpty();
+    }
+
+    /**
+     * @return the number of files that have to be written to the index
+     */
+    public int size() {
+        return untracked.size() + modified.size() + removed.size();
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("untracked", untracked.size())
+                .add("modified", modified.size())
+                .add("removed", removed.size())
+                .add("staged", staged.size())
+                .toString();
+    }
+}
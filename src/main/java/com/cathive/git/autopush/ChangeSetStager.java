@@ -0,0 +1,340 @@
+package com.cathive.git.autopush;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.WorkingTreeOptions;
+import org.eclipse.jgit.util.io.EolCanonicalizingInputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static org.eclipse.jgit.lib.Constants.OBJ_BLOB;
+import static org.eclipse.jgit.lib.Constants.encode;
+import static org.eclipse.jgit.lib.CoreConfig.AutoCRLF.FALSE;
+
+/**
+ * Writes a {@link ChangeSet} to the index of a repository. In contrast to the {@link org.eclipse.jgit.api.AddCommand},
+ * the working copy is not walked again: only the files named in the change set are read, and all of them are applied
+ * to the index in a single edit. If a pool is given, the blobs are hashed and compressed by several threads, each
+ * inserting a part of the files with its own inserter. If objects are packed, all blobs of a stage are written into
+ * a single pack by one {@link PackInserter} instead.
+ *
+ * @author Alexander Erben
+ */
+public class ChangeSetStager {
+
+    /**
+     * Smaller change sets are staged on the calling thread, as splitting them would cost more than it saves
+     */
+    private static final int MIN_PARALLEL_FILES = 64;
+
+    /**
+     * Number of chunks per thread of the pool, so that threads that finish early can take over work of others
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final Repository repository;
+
+    private final StatCache statCache;
+
+    /**
+     * Informed of every edit of the index
+     */
+    private final CacheTree cacheTree;
+
+    /**
+     * The pool that inserts blobs in parallel, or {@code null} to insert them on the calling thread
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * If set, the blobs of a stage are written into a single pack instead of loose objects
+     */
+    private final boolean packObjects;
+
+    public ChangeSetStager(final Repository repository, final StatCache statCache, final CacheTree cacheTree) {
+        this(repository, statCache, cacheTree, null, false);
+    }
+
+    public ChangeSetStager(final Repository repository, final StatCache statCache, final CacheTree cacheTree,
+                           final ForkJoinPool pool, final boolean packObjects) {
+        this.repository = repository;
+        this.statCache = statCache;
+        this.cacheTree = cacheTree;
+        this.pool = pool;
+        this.packObjects = packObjects;
+    }
+
+    /**
+     * Insert the content of all untracked and modified files as blobs, then update their index entries and delete
+     * the entries of removed files. The ids of the inserted blobs are recorded in the stat cache.
+     * @throws IOException
+     */
+    public void stage(final ChangeSet changes) throws IOException {
+        apply(insert(changes));
+    }
+
+    /**
+     * Insert the content of all untracked and modified files as blobs, without changing the index. The ids of the
+     * inserted blobs are recorded in the stat cache.
+     * @return the new index entries of the files, and the removed files
+     * @throws IOException
+     */
+    public Staged insert(final ChangeSet changes) throws IOException {
+        final WorkingTreeOptions options = this.repository.getConfig().get(WorkingTreeOptions.KEY);
+        final List<String> paths = new ArrayList<>(Sets.union(changes.getUntracked(), changes.getModified()));
+        final ObjectInserter shared = this.packObjects ? new PackInserter(this.repository) : null;
+        final Staged staged = new Staged();
+        staged.removed.addAll(changes.getRemoved());
+        try {
+            if (this.pool == null || paths.size() < MIN_PARALLEL_FILES) {
+                insertAll(paths, options, shared, staged);
+            } else {
+                insertInParallel(paths, options, shared, staged);
+            }
+            if (shared != null) {
+                shared.flush();
+            }
+        } finally {
+            if (shared != null) {
+                shared.release();
+            }
+        }
+        return staged;
+    }
+
+    /**
+     * Apply inserted files to the index in a single edit, which invalidates the cached trees of their directories.
+     * The index of an {@link IndexFileRepository} is edited without reading it, see {@link IndexFile#edit(Map)}.
+     * @throws IOException
+     */
+    public void apply(final Staged staged) throws IOException {
+        final Map<String, DirCacheEditor.PathEdit> edits = new HashMap<>();
+        staged.updated.forEach((entry) -> edits.put(entry.getPathString(), new UpdateEntry(entry)));
+        staged.removed.forEach((path) -> edits.put(path, new DirCacheEditor.DeletePath(path)));
+        final DirCache index = this.repository instanceof IndexFileRepository
+                ? IndexFile.lockForEdit((IndexFileRepository) this.repository) : this.repository.lockDirCache();
+        try {
+            final byte[] before = CacheTree.checksum(this.repository.getIndexFile());
+            if (index instanceof IndexFile) {
+                ((IndexFile) index).edit(edits);
+            } else {
+                final DirCacheEditor editor = index.editor();
+                edits.values().forEach(editor::add);
+                editor.finish();
+                index.write();
+            }
+            this.cacheTree.edited(before, edits.keySet(), CacheTree.checksum(lockFile()));
+            if (!index.commit()) {
+                throw new IOException("Could not commit the index " + this.repository.getIndexFile());
+            }
+        } finally {
+            index.unlock();
+        }
+    }
+
+    /**
+     * @return the file the locked index is written to before it is committed
+     */
+    private File lockFile() {
+        return new File(this.repository.getIndexFile().getPath() + ".lock");
+    }
+
+    /**
+     * Split the files into chunks whose blobs are inserted by the tasks of the pool, each with its own inserter
+     * unless a thread-safe inserter is shared by all of them.
+     */
+    private void insertInParallel(final List<String> paths, final WorkingTreeOptions options,
+                                  final ObjectInserter shared, final Staged staged) throws IOException {
+        final int chunkSize = Math.max(1, paths.size() / (this.pool.getParallelism() * CHUNKS_PER_THREAD));
+        try {
+            this.pool.invoke(new RecursiveAction() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    final List<ForkJoinTask<Staged>> tasks = new ArrayList<>();
+                    for (int start = 0; start < paths.size(); start += chunkSize) {
+                        final List<String> chunk = paths.subList(start, Math.min(paths.size(), start + chunkSize));
+                        tasks.add(ForkJoinTask.adapt(() -> {
+                            try {
+                                final Staged part = new Staged();
+                                insertAll(chunk, options, shared, part);
+                                return part;
+                            } catch (final IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }));
+                    }
+                    invokeAll(tasks).forEach((task) -> {
+                        staged.updated.addAll(task.join().updated);
+                        staged.removed.addAll(task.join().removed);
+                    });
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Insert the content of the given files as blobs and add their index entries to the given result. Unless a
+     * shared inserter is given, a new inserter is used, which is flushed once all of them have been inserted.
+     */
+    private void insertAll(final List<String> paths, final WorkingTreeOptions options, final ObjectInserter shared,
+                           final Staged staged) throws IOException {
+        final ObjectInserter inserter = shared != null ? shared : this.repository.newObjectInserter();
+        try {
+            for (final String path : paths) {
+                final File file = new File(this.repository.getWorkTree(), path);
+                final BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class, NOFOLLOW_LINKS);
+                } catch (final NoSuchFileException e) {
+                    staged.removed.add(path);
+                    continue;
+                }
+                if (!attributes.isDirectory()) { // changes of submodules are not staged
+                    final ObjectId id = insertBlob(inserter, options, file, attributes);
+                    staged.updated.add(entry(path, id, fileMode(options, file, attributes), attributes));
+                    this.statCache.record(path, attributes, id);
+                }
+            }
+            if (shared == null) {
+                inserter.flush();
+            }
+        } finally {
+            if (shared == null) {
+                inserter.release();
+            }
+        }
+    }
+
+    /**
+     * Insert the content of a file as blob. Line endings are normalized if core.autocrlf is set.
+     */
+    private ObjectId insertBlob(final ObjectInserter inserter, final WorkingTreeOptions options, final File file,
+                                final BasicFileAttributes attributes) throws IOException {
+        if (attributes.isSymbolicLink()) {
+            return inserter.insert(OBJ_BLOB,
+                    encode(Files.readSymbolicLink(file.toPath()).toString().replace(File.separatorChar, '/')));
+        }
+        if (options.getAutoCRLF() == FALSE) {
+            try (InputStream in = new FileInputStream(file)) {
+                return inserter.insert(OBJ_BLOB, attributes.size(), in);
+            }
+        }
+        final long length;
+        try (InputStream in = new EolCanonicalizingInputStream(new FileInputStream(file), true)) {
+            length = ByteStreams.copy(in, ByteStreams.nullOutputStream());
+        }
+        try (InputStream in = new EolCanonicalizingInputStream(new FileInputStream(file), true)) {
+            return inserter.insert(OBJ_BLOB, length, in);
+        }
+    }
+
+    /**
+     * @return the mode of a file, or {@code null} if the mode of an existing index entry should be kept because
+     * core.filemode is false
+     */
+    private FileMode fileMode(final WorkingTreeOptions options, final File file,
+                              final BasicFileAttributes attributes) {
+        if (attributes.isSymbolicLink()) {
+            return FileMode.SYMLINK;
+        }
+        if (!options.isFileMode() || !this.repository.getFS().supportsExecute()) {
+            return null;
+        }
+        return this.repository.getFS().canExecute(file) ? FileMode.EXECUTABLE_FILE : FileMode.REGULAR_FILE;
+    }
+
+    /**
+     * @param mode the mode of the file, or {@code null} to keep the mode of an existing entry
+     * @return an index entry that points to a new blob and records the stat data of the file it was read from
+     */
+    private static DirCacheEntry entry(final String path, final ObjectId id, final FileMode mode,
+                                       final BasicFileAttributes attributes) {
+        final DirCacheEntry entry = new DirCacheEntry(path);
+        if (mode != null) {
+            entry.setFileMode(mode);
+        }
+        entry.setObjectId(id);
+        entry.setLength(attributes.size());
+        entry.setLastModified(attributes.lastModifiedTime().toMillis());
+        return entry;
+    }
+
+    /**
+     * The result of inserting the files of a change set
+     */
+    public static class Staged {
+
+        private final List<DirCacheEntry> updated = new ArrayList<>();
+
+        private final Set<String> removed = new HashSet<>();
+
+        /**
+         * @return the new index entries of untracked and modified files. Their raw mode is 0 if the mode of an
+         * existing entry should be kept.
+         */
+        public List<DirCacheEntry> getUpdated() {
+            return updated;
+        }
+
+        /**
+         * @return the paths of removed files
+         */
+        public Set<String> getRemoved() {
+            return removed;
+        }
+    }
+
+    /**
+     * Copies a new index entry onto an existing one, or onto a new one for an untracked file
+     */
+    private static class UpdateEntry extends DirCacheEditor.PathEdit {
+
+        private final DirCacheEntry updated;
+
+        private UpdateEntry(final DirCacheEntry updated) {
+            super(updated);
+            this.updated = updated;
+        }
+
+        @Override
+        public void apply(final DirCacheEntry entry) {
+            if (this.updated.getRawMode() != 0) {
+                entry.setFileMode(this.updated.getFileMode());
+            } else if (entry.getRawMode() == 0) {
+                entry.setFileMode(FileMode.REGULAR_FILE);
+            }
+            entry.setObjectId(this.updated.getObjectId());
+            entry.setLength(this.updated.getLength());
+            entry.setLastModified(this.updated.getLastModified());
+        }
+    }
+}
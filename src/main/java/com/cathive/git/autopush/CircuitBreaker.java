@@ -0,0 +1,104 @@
+package com.cathive.git.autopush;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Stops contacting a remote repository after a number of consecutive failures to reach it. The breaker then stays
+ * open for a while, during which every operation on the remote repository is refused. Afterwards, it is half-open:
+ * a single probe is let through, which closes the breaker if it succeeds and opens it again if it fails.
+ * The time the breaker stays open varies randomly between half and all of the configured duration, so that many
+ * instances do not probe a recovering remote repository at the same time.
+ * <p>
+ * A breaker is shared by all repositories that push to the same remote URL.
+ *
+ * @author Alexander Erben
+ */
+public class CircuitBreaker {
+
+    private static Logger LOG = Logger.getLogger(CircuitBreaker.class.getCanonicalName());
+
+    /**
+     * A breaker that never opens
+     */
+    public static final CircuitBreaker DISABLED = new CircuitBreaker("", Integer.MAX_VALUE, 0);
+
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String remote;
+
+    private final int failureThreshold;
+
+    private final long openDuration;
+
+    private State state = State.CLOSED;
+
+    private int failures;
+
+    private long openUntil;
+
+    /**
+     * @param remote           URL of the remote repository, used in log messages
+     * @param failureThreshold number of consecutive failures that open the breaker
+     * @param openDuration     maximum milliseconds the breaker stays open before a probe is let through
+     */
+    public CircuitBreaker(final String remote, final int failureThreshold, final long openDuration) {
+        this.remote = remote;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+    }
+
+    /**
+     * Ask for permission to contact the remote repository.
+     * @throws OpenException if the breaker is open, or half-open with a probe already in progress
+     */
+    public synchronized void acquire() throws OpenException {
+        if (this.state == State.OPEN && System.currentTimeMillis() >= this.openUntil) {
+            LOG.info(format("Circuit breaker of %s half-open, probing the remote repository.", this.remote));
+            this.state = State.HALF_OPEN;
+            return; // this caller performs the probe
+        }
+        if (this.state != State.CLOSED) {
+            throw new OpenException(this.remote);
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (this.state != State.CLOSED) {
+            LOG.info(format("Circuit breaker of %s closed.", this.remote));
+        }
+        this.state = State.CLOSED;
+        this.failures = 0;
+    }
+
+    public synchronized void recordFailure() {
+        this.failures++;
+        if (this.state == State.HALF_OPEN || this.failures >= this.failureThreshold) {
+            final long duration = this.openDuration / 2
+                    + ThreadLocalRandom.current().nextLong(this.openDuration / 2 + 1);
+            this.openUntil = System.currentTimeMillis() + duration;
+            if (this.state != State.OPEN) {
+                LOG.warning(format("Circuit breaker of %s opened for %d ms after %d failures.",
+                        this.remote, duration, this.failures));
+            }
+            this.state = State.OPEN;
+        }
+    }
+
+    /**
+     * Thrown instead of contacting a remote repository while its breaker is open
+     */
+    public static class OpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(final String remote) {
+            super(format("Circuit breaker of %s is open", remote));
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.cathive.git.autopush;
+
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_REMOTES;
+
+/**
+ * Performs the git operations by running a native git binary in the working copy. Native git can use its untracked
+ * cache and a file system monitor configured in the repository, which makes the status of very large working copies
+ * much faster than the one of JGit. The status is parsed from the porcelain v2 format. It lists untracked directories
+ * rather than the files in them, as listing every untracked file would bypass the untracked cache; the files of new
+ * directories are listed by ls-files afterwards. Files are staged with update-index, which takes literal paths on its
+ * standard input and therefore works for any number of paths.
+ * <p>
+ * Requires git 2.18 or later. The number of visited entries is not counted, as git does not report it. Fatal errors of
+ * fetches and pushes, which include unreachable remote repositories, are reported as {@link TransportException}.
+ *
+ * @author Alexander Erben
+ */
+public class CliGitBackend implements GitBackend {
+
+    /**
+     * Maximum number of characters of the paths passed to a single git command, well below the limits of the command
+     * line of every platform. If the dirty paths are longer, the whole working copy is scanned instead.
+     */
+    private static final int MAX_PATHSPEC_LENGTH = 16 * 1024;
+
+    /**
+     * Exit code of git on fatal errors, e.g. if a remote repository cannot be read
+     */
+    private static final int FATAL = 128;
+
+    private final Repository repository;
+
+    private final String executable;
+
+    /**
+     * @param repository the repository to operate on, which must have a working copy
+     * @param executable the git binary, either a path or a name looked up on the PATH
+     */
+    public CliGitBackend(final Repository repository, final String executable) {
+        this.repository = repository;
+        this.executable = executable;
+    }
+
+    @Override
+    public Repository getRepository() {
+        return this.repository;
+    }
+
+    @Override
+    public void fetch(final String remote, final String branch) throws IOException {
+        git(true, 0, null, Collections.emptyMap(), "fetch", "--quiet", "--no-tags", remote,
+                format("+%s%s:%s%s/%s", R_HEADS, branch, R_REMOTES, remote, branch));
+    }
+
+    /**
+     * Run git status, leaving out submodules and conflicts like the JGit backend does. Untracked directories are
+     * expanded into their files with git ls-files.
+     */
+    @Override
+    public ChangeSet status(final DirtyPaths paths, final LongAdder visited) throws IOException {
+        final List<String> arguments = new ArrayList<>(ImmutableList.of("status", "--porcelain=v2", "-z",
+                "--untracked-files=normal", "--ignore-submodules=all", "--no-renames"));
+        if (!paths.isEverything() && length(paths.getPaths()) <= MAX_PATHSPEC_LENGTH) {
+            arguments.add("--");
+            arguments.addAll(paths.getPaths());
+        }
+        final byte[] output = git(false, 0, null, Collections.emptyMap(), arguments.toArray(new String[0]));
+        final Set<String> untracked = new HashSet<>();
+        final Set<String> modified = new HashSet<>();
+        final Set<String> removed = new HashSet<>();
+        final Set<String> staged = new HashSet<>();
+        final List<String> untrackedDirectories = new ArrayList<>();
+        final String[] records = new String(output, UTF_8).split("\0");
+        for (int i = 0; i < records.length; i++) {
+            final String record = records[i];
+            if (record.isEmpty()) {
+                continue;
+            }
+            final String path;
+            switch (record.charAt(0)) {
+                case '1': // 1 <XY> <sub> <mH> <mI> <mW> <hH> <hI> <path>
+                    path = record.split(" ", 9)[8];
+                    break;
+                case '2': // 2 <XY> <sub> <mH> <mI> <mW> <hH> <hI> <X><score> <path>, followed by the original path
+                    path = record.split(" ", 10)[9];
+                    i++;
+                    break;
+                case '?':
+                    (record.endsWith("/") ? untrackedDirectories : untracked).add(record.substring(2));
+                    continue;
+                default: // conflicts are left to the user
+                    continue;
+            }
+            final char index = record.charAt(2);
+            final char workingTree = record.charAt(3);
+            if (index != '.') {
+                staged.add(path);
+            }
+            if (workingTree == 'D') {
+                removed.add(path);
+            } else if (workingTree != '.') {
+                modified.add(path);
+            }
+        }
+        untracked.addAll(untrackedFiles(untrackedDirectories));
+        return new ChangeSet(untracked, modified, removed, staged);
+    }
+
+    /**
+     * @param directories untracked directories, each ending with "/"
+     * @return the files in the directories that are not ignored
+     */
+    private List<String> untrackedFiles(final List<String> directories) throws IOException {
+        final List<String> files = new ArrayList<>();
+        for (int start = 0; start < directories.size(); ) {
+            final List<String> arguments = new ArrayList<>(ImmutableList.of("ls-files", "-z", "--others",
+                    "--exclude-standard", "--"));
+            int length = 0;
+            int end = start;
+            do {
+                length += directories.get(end).length() + 1;
+                arguments.add(directories.get(end++));
+            } while (end < directories.size() && length + directories.get(end).length() < MAX_PATHSPEC_LENGTH);
+            for (final String file : new String(git(false, 0, null, Collections.emptyMap(),
+                    arguments.toArray(new String[0])), UTF_8).split("\0")) {
+                if (!file.isEmpty()) {
+                    files.add(file);
+                }
+            }
+            start = end;
+        }
+        return files;
+    }
+
+    /**
+     * @return the number of characters of the paths on a command line, including the separating spaces
+     */
+    private static int length(final Set<String> paths) {
+        int length = 0;
+        for (final String path : paths) {
+            length += path.length() + 1;
+        }
+        return length;
+    }
+
+    @Override
+    public void add(final ChangeSet changeSet) throws IOException {
+        final ByteArrayOutputStream paths = new ByteArrayOutputStream();
+        for (final Set<String> group : ImmutableList.of(changeSet.getUntracked(), changeSet.getModified(),
+                changeSet.getRemoved())) {
+            for (final String path : group) {
+                paths.write(path.getBytes(UTF_8));
+                paths.write(0);
+            }
+        }
+        if (paths.size() > 0) {
+            git(false, 0, paths.toByteArray(), Collections.emptyMap(), "update-index", "--add", "--remove", "-z",
+                    "--stdin");
+        }
+    }
+
+    /**
+     * Run git commit without hooks, with the committer of the JGit backend. Like JGit, an unchanged index is
+     * committed as well.
+     */
+    @Override
+    public ObjectId commit(final String message, final PersonIdent author) throws IOException {
+        final PersonIdent committer = new PersonIdent(this.repository);
+        final Map<String, String> environment = new HashMap<>();
+        environment.put("GIT_COMMITTER_NAME", committer.getName());
+        environment.put("GIT_COMMITTER_EMAIL", committer.getEmailAddress());
+        git(false, 0, null, environment, "commit", "--quiet", "--no-verify", "--allow-empty", "--message", message,
+                "--author", format("%s <%s>", author.getName(), author.getEmailAddress()));
+        return ObjectId.fromString(new String(git(false, 0, null, Collections.emptyMap(), "rev-parse", HEAD), UTF_8)
+                .trim());
+    }
+
+    /**
+     * Run git push. Progress is not reported to the monitor.
+     * @throws IOException if the remote repository rejected the update
+     */
+    @Override
+    public void push(final String remote, final ObjectId head, final String branch, final int timeout,
+                     final ProgressMonitor monitor) throws IOException {
+        git(true, timeout, null, Collections.emptyMap(), "push", "--quiet", "--porcelain", remote,
+                head.name() + ":" + R_HEADS + branch);
+    }
+
+    /**
+     * Nothing to persist, git keeps its caches in the index.
+     */
+    @Override
+    public void persist() {
+    }
+
+    /**
+     * Run git in the working copy. Its output is collected in temporary files, so that it can neither block on a full
+     * pipe nor outlive the timeout.
+     * @param remote      set if git contacts a remote repository, whose fatal errors are transport errors
+     * @param timeout     seconds after which git is killed, or 0 to wait forever
+     * @param input       the standard input of git, or {@code null} for none
+     * @param environment variables to set in addition to the inherited ones
+     * @param arguments   the arguments of git
+     * @return the standard output of git
+     * @throws IOException if git failed
+     */
+    private byte[] git(final boolean remote, final int timeout, final byte[] input,
+                       final Map<String, String> environment, final String... arguments) throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add(this.executable);
+        Collections.addAll(command, arguments);
+        final ProcessBuilder builder = new ProcessBuilder(command).directory(this.repository.getWorkTree());
+        builder.environment().put("GIT_LITERAL_PATHSPECS", "1"); // dirty paths are never patterns
+        builder.environment().put("GIT_TERMINAL_PROMPT", "0"); // fail instead of waiting for credentials
+        builder.environment().putAll(environment);
+        final File output = File.createTempFile("autopush-git", ".out");
+        final File errors = File.createTempFile("autopush-git", ".err");
+        try {
+            builder.redirectOutput(output).redirectError(errors);
+            final Process process = builder.start();
+            try (OutputStream in = process.getOutputStream()) {
+                if (input != null) {
+                    in.write(input);
+                }
+            }
+            if (!waitFor(process, timeout)) {
+                process.destroyForcibly();
+                final String message = format("git %s timed out after %d s", arguments[0], timeout);
+                throw remote ? new TransportException(message) : new IOException(message);
+            }
+            if (process.exitValue() != 0) {
+                final String message = format("git %s failed with exit code %d: %s %s", arguments[0],
+                        process.exitValue(), new String(Files.readAllBytes(errors.toPath()), UTF_8).trim(),
+                        new String(Files.readAllBytes(output.toPath()), UTF_8).trim());
+                throw remote && process.exitValue() == FATAL ? new TransportException(message)
+                        : new IOException(message);
+            }
+            return Files.readAllBytes(output.toPath());
+        } finally {
+            Files.deleteIfExists(output.toPath());
+            Files.deleteIfExists(errors.toPath());
+        }
+    }
+
+    private static boolean waitFor(final Process process, final int timeout) throws IOException {
+        try {
+            if (timeout > 0) {
+                return process.waitFor(timeout, TimeUnit.SECONDS);
+            }
+            process.waitFor();
+            return true;
+        } catch (final InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for git", e);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.eclipse.jgit.lib.Constants.encode;
+
+/**
+ * Builds the tree of a new commit from the tree of its parent and the files changed since, without the index. Only
+ * the trees along the paths of changed files are read and written again; all other trees are taken over by their id.
+ * The cost of a commit therefore grows with the number of changes instead of the size of the index.
+ *
+ * @author Alexander Erben
+ */
+public class CommitTreeBuilder {
+
+    private final ObjectReader reader;
+
+    private final ObjectInserter inserter;
+
+    /**
+     * The changed files by path. A change without id removes the file.
+     */
+    private final SortedMap<String, Change> changes = new TreeMap<>();
+
+    /**
+     * @param reader   reads the trees of the parent
+     * @param inserter inserts the new trees, which are readable once it has been flushed
+     */
+    public CommitTreeBuilder(final ObjectReader reader, final ObjectInserter inserter) {
+        this.reader = reader;
+        this.inserter = inserter;
+    }
+
+    /**
+     * Point a file to a new blob, replacing a previous change of the same path.
+     * @param mode the mode of the file, or {@code null} to keep the mode of the file in the parent
+     */
+    public void update(final String path, final ObjectId id, final FileMode mode) {
+        this.changes.put(path, new Change(id, mode));
+    }
+
+    /**
+     * Remove a file, replacing a previous change of the same path.
+     */
+    public void remove(final String path) {
+        this.changes.put(path, new Change(null, null));
+    }
+
+    /**
+     * @return {@code true} if the path has been updated or removed
+     */
+    public boolean isChanged(final String path) {
+        return this.changes.containsKey(path);
+    }
+
+    /**
+     * Insert the trees that differ from the given tree.
+     * @param base the tree of the parent, or {@code null} for the first commit
+     * @return the id of the new root tree
+     * @throws IOException
+     */
+    public ObjectId build(final AnyObjectId base) throws IOException {
+        final ObjectId root = build(base, "", this.changes);
+        return root != null ? root : this.inserter.insert(new TreeFormatter());
+    }
+
+    /**
+     * @param base    the tree at the given prefix in the parent, or {@code null} if there is none
+     * @param prefix  the path of the tree, empty or ending with "/"
+     * @param changes the changes below the prefix
+     * @return the id of the new tree, or {@code null} if it is empty
+     */
+    private ObjectId build(final AnyObjectId base, final String prefix, final SortedMap<String, Change> changes)
+            throws IOException {
+        final Map<String, Entry> entries = new TreeMap<>();
+        if (base != null) {
+            for (CanonicalTreeParser parser = new CanonicalTreeParser(null, this.reader, base); !parser.eof();
+                 parser.next(1)) {
+                entries.put(parser.getEntryPathString(),
+                        new Entry(parser.getEntryFileMode(), parser.getEntryObjectId()));
+            }
+        }
+        final Map<String, SortedMap<String, Change>> subtrees = new TreeMap<>();
+        for (final Map.Entry<String, Change> change : changes.entrySet()) {
+            final String name = change.getKey().substring(prefix.length());
+            final int slash = name.indexOf('/');
+            if (slash >= 0) {
+                subtrees.computeIfAbsent(name.substring(0, slash), (key) -> new TreeMap<>())
+                        .put(change.getKey(), change.getValue());
+            } else if (change.getValue().id == null) {
+                final Entry removed = entries.get(name);
+                if (removed != null && removed.mode != FileMode.TREE) {
+                    entries.remove(name);
+                }
+            } else {
+                final Entry existing = entries.get(name);
+                final FileMode mode = change.getValue().mode != null ? change.getValue().mode
+                        : existing != null && existing.mode != FileMode.TREE ? existing.mode : FileMode.REGULAR_FILE;
+                entries.put(name, new Entry(mode, change.getValue().id));
+            }
+        }
+        for (final Map.Entry<String, SortedMap<String, Change>> subtree : subtrees.entrySet()) {
+            final Entry existing = entries.get(subtree.getKey());
+            final ObjectId id = build(existing != null && existing.mode == FileMode.TREE ? existing.id : null,
+                    prefix + subtree.getKey() + "/", subtree.getValue());
+            if (id != null) {
+                entries.put(subtree.getKey(), new Entry(FileMode.TREE, id));
+            } else if (existing != null && existing.mode == FileMode.TREE) {
+                entries.remove(subtree.getKey());
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        final List<Map.Entry<String, Entry>> sorted = new ArrayList<>(entries.entrySet());
+        sorted.sort((a, b) -> compare(a.getKey(), a.getValue().mode, b.getKey(), b.getValue().mode));
+        final TreeFormatter tree = new TreeFormatter();
+        for (final Map.Entry<String, Entry> entry : sorted) {
+            tree.append(entry.getKey(), entry.getValue().mode, entry.getValue().id);
+        }
+        return this.inserter.insert(tree);
+    }
+
+    /**
+     * Compare two entries in the order of git, in which the name of a tree is followed by a slash
+     */
+    private static int compare(final String a, final FileMode aMode, final String b, final FileMode bMode) {
+        final byte[] aName = encode(aMode == FileMode.TREE ? a + "/" : a);
+        final byte[] bName = encode(bMode == FileMode.TREE ? b + "/" : b);
+        for (int i = 0; i < Math.min(aName.length, bName.length); i++) {
+            if (aName[i] != bName[i]) {
+                return (aName[i] & 0xff) - (bName[i] & 0xff);
+            }
+        }
+        return aName.length - bName.length;
+    }
+
+    private static class Change {
+
+        private final ObjectId id;
+
+        private final FileMode mode;
+
+        private Change(final ObjectId id, final FileMode mode) {
+            this.id = id;
+            this.mode = mode;
+        }
+    }
+
+    private static class Entry {
+
+        private final FileMode mode;
+
+        private final ObjectId id;
+
+        private Entry(final FileMode mode, final ObjectId id) {
+            this.mode = mode;
+            this.id = id;
+        }
+    }
+}
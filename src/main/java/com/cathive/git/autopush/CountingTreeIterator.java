@@ -0,0 +1,84 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.util.FS;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * A {@link FileTreeIterator} that counts the entries of the working copy it visits, including those of all
+ * subdirectories. Files that would have to be hashed to decide whether they are modified are looked up in a
+ * {@link StatCache} first, and the result of hashing them is recorded there.
+ *
+ * @author Alexander Erben
+ */
+public class CountingTreeIterator extends FileTreeIterator {
+
+    private final LongAdder visited;
+
+    private final StatCache statCache;
+
+    public CountingTreeIterator(final Repository repository, final LongAdder visited, final StatCache statCache) {
+        super(repository);
+        this.visited = visited;
+        this.statCache = statCache;
+    }
+
+    protected CountingTreeIterator(final CountingTreeIterator parent, final File directory, final FS fs) {
+        super(parent, directory, fs);
+        this.visited = parent.visited;
+        this.statCache = parent.statCache;
+    }
+
+    @Override
+    public AbstractTreeIterator createSubtreeIterator(final ObjectReader reader) throws IOException {
+        return new CountingTreeIterator(this, getEntryFile(), this.fs);
+    }
+
+    @Override
+    public void next(final int delta) throws org.eclipse.jgit.errors.CorruptObjectException {
+        super.next(delta);
+        this.visited.add(delta);
+    }
+
+    @Override
+    public boolean isModified(final DirCacheEntry entry, final boolean forceContentCheck, final ObjectReader reader)
+            throws IOException {
+        if (entry.isAssumeValid() || entry.isUpdateNeeded()) {
+            return super.isModified(entry, forceContentCheck, reader);
+        }
+        final MetadataDiff diff = compareMetadata(entry);
+        if (diff != MetadataDiff.SMUDGED && (diff != MetadataDiff.DIFFER_BY_TIMESTAMP || !forceContentCheck)) {
+            return super.isModified(entry, forceContentCheck, reader); // decided without reading the content
+        }
+        final String path = getEntryPathString();
+        final BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(getEntryFile().toPath(), BasicFileAttributes.class, NOFOLLOW_LINKS);
+        } catch (final NoSuchFileException e) {
+            return true;
+        }
+        final ObjectId cached = this.statCache.lookup(path, attributes);
+        if (cached != null) {
+            return !cached.equals(entry.getObjectId());
+        }
+        final boolean modified = super.isModified(entry, forceContentCheck, reader);
+        if (!modified) {
+            this.statCache.record(path, attributes, entry.getObjectId());
+        }
+        return modified;
+    }
+}
@@ -0,0 +1,99 @@
+package com.cathive.git.autopush;
+
+import org.springframework.scheduling.TaskScheduler;
+
+import java.util.Date;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Coalesces bursts of signals into a single execution of an action. The action runs once no signal arrived for the
+ * quiet period, but no later than the maximum delay after the first signal of a burst, so that a writer that never
+ * pauses can not postpone the action forever.
+ *
+ * @author Alexander Erben
+ */
+public class Debouncer {
+
+    private final TaskScheduler scheduler;
+
+    private final Runnable action;
+
+    private final long quietPeriod;
+
+    private final long maxDelay;
+
+    /**
+     * Time of the first signal of the current burst, 0 if no burst is in progress
+     */
+    private long firstSignal;
+
+    /**
+     * Time of the latest signal of the current burst
+     */
+    private long lastSignal;
+
+    /**
+     * Set while an execution of the action is scheduled
+     */
+    private boolean scheduled;
+
+    /**
+     * @param scheduler   the scheduler executing the action
+     * @param action      the action to execute after a burst of signals
+     * @param quietPeriod milliseconds without signals after which the action is executed
+     * @param maxDelay    maximum milliseconds between the first signal of a burst and the execution of the action
+     */
+    public Debouncer(final TaskScheduler scheduler, final Runnable action, final long quietPeriod,
+                     final long maxDelay) {
+        checkArgument(quietPeriod > 0, "Quiet period must be positive! Was: " + quietPeriod);
+        checkArgument(maxDelay >= quietPeriod, "Maximum delay must not be shorter than the quiet period! Was: "
+                + maxDelay);
+        this.scheduler = scheduler;
+        this.action = action;
+        this.quietPeriod = quietPeriod;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Record a signal and make sure the action is scheduled.
+     */
+    public synchronized void signal() {
+        final long now = System.currentTimeMillis();
+        if (this.firstSignal == 0) {
+            this.firstSignal = now;
+        }
+        this.lastSignal = now;
+        if (!this.scheduled) {
+            this.scheduled = true;
+            this.scheduler.schedule(this::fire, new Date(dueTime()));
+        }
+    }
+
+    /**
+     * @return {@code true} if no burst of signals is in progress
+     */
+    public synchronized boolean isSettled() {
+        return this.firstSignal == 0;
+    }
+
+    private long dueTime() {
+        return Math.min(this.lastSignal + this.quietPeriod, this.firstSignal + this.maxDelay);
+    }
+
+    /**
+     * Execute the action if the burst is over, otherwise schedule the check again for the current due time.
+     */
+    private void fire() {
+        synchronized (this) {
+            final long due = dueTime();
+            if (System.currentTimeMillis() < due) {
+                this.scheduler.schedule(this::fire, new Date(due));
+                return;
+            }
+            this.firstSignal = 0;
+            this.scheduled = false;
+        }
+        this.action.run();
+    }
+}
@@ -0,0 +1,76 @@
+package com.cathive.git.autopush;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Set of repository-relative paths that changed since the last scan of a working copy. Paths use "/" as separator,
+ * like paths in the git index. A directory path stands for everything below it. Instead of single paths, the whole
+ * working copy may be marked as changed, e.g. after the watch service lost events.
+ *
+ * @author Alexander Erben
+ */
+public class DirtyPaths {
+
+    private Set<String> paths;
+
+    private boolean everything;
+
+    /**
+     * Create a set that marks the whole working copy as changed.
+     */
+    public DirtyPaths() {
+        this(new HashSet<>(), true);
+    }
+
+    private DirtyPaths(final Set<String> paths, final boolean everything) {
+        this.paths = paths;
+        this.everything = everything;
+    }
+
+    public synchronized void add(final String path) {
+        if (!this.everything) {
+            this.paths.add(path);
+        }
+    }
+
+    public synchronized void addEverything() {
+        this.everything = true;
+        this.paths = new HashSet<>();
+    }
+
+    /**
+     * Merge the paths of a previous {@link #drain()} back into this set, e.g. because their run failed.
+     */
+    public synchronized void restore(final DirtyPaths drained) {
+        if (drained.everything) {
+            addEverything();
+        } else {
+            drained.paths.forEach(this::add);
+        }
+    }
+
+    /**
+     * Take all paths collected so far, leaving this set empty.
+     * @return a snapshot of the collected paths
+     */
+    public synchronized DirtyPaths drain() {
+        final DirtyPaths drained = new DirtyPaths(this.paths, this.everything);
+        this.paths = new HashSet<>();
+        this.everything = false;
+        return drained;
+    }
+
+    public synchronized boolean isEverything() {
+        return this.everything;
+    }
+
+    public synchronized boolean isEmpty() {
+        return !this.everything && this.paths.isEmpty();
+    }
+
+    public synchronized Set<String> getPaths() {
+        return Collections.unmodifiableSet(new HashSet<>(this.paths));
+    }
+}
@@ -0,0 +1,98 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.errors.CorruptObjectException;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * Reads and writes bitmaps in the EWAH format of git, which the link extension of a split index uses for the entries
+ * of the shared index that are deleted or replaced.
+ * <p>
+ * The bitmap is a sequence of 64 bit words. Each marker word holds a bit, the number of words that consist of that
+ * bit only, and the number of literal words following the marker. The bits of a literal word are numbered from the
+ * least significant one, like those of a {@link BitSet}. The words are preceded by the number of bits and words and
+ * followed by the position of the last marker word, all in network byte order.
+ *
+ * @author Alexander Erben
+ */
+public final class EwahBitmap {
+
+    private static final long MAX_RUNNING_LENGTH = 0xffffffffL;
+
+    private static final int MAX_LITERAL_WORDS = 0x7fffffff;
+
+    private EwahBitmap() {
+    }
+
+    /**
+     * Read a bitmap at the position of the given buffer, which is moved behind it.
+     * @throws CorruptObjectException if the bitmap is truncated or too large
+     */
+    public static BitSet read(final ByteBuffer buffer) throws CorruptObjectException {
+        try {
+            buffer.getInt(); // number of bits
+            final int words = buffer.getInt();
+            final BitSet bits = new BitSet();
+            long word = 0;
+            for (int i = 0; i < words; ) {
+                final long marker = buffer.getLong();
+                i++;
+                final long running = (marker >>> 1) & MAX_RUNNING_LENGTH;
+                final long literals = marker >>> 33;
+                if ((word + running + literals) * Long.SIZE > Integer.MAX_VALUE || i + literals > words) {
+                    throw new CorruptObjectException("Invalid EWAH bitmap");
+                }
+                if ((marker & 1) != 0) {
+                    bits.set((int) (word * Long.SIZE), (int) ((word + running) * Long.SIZE));
+                }
+                word += running;
+                for (long j = 0; j < literals; j++, i++, word++) {
+                    for (long literal = buffer.getLong(); literal != 0; literal &= literal - 1) {
+                        bits.set((int) (word * Long.SIZE) + Long.numberOfTrailingZeros(literal));
+                    }
+                }
+            }
+            buffer.getInt(); // position of the last marker word
+            return bits;
+        } catch (final BufferUnderflowException e) {
+            throw new CorruptObjectException("Truncated EWAH bitmap");
+        }
+    }
+
+    /**
+     * Write a bitmap, compressing runs of words without any bit set.
+     */
+    public static void write(final BitSet bits, final DataOutput out) throws IOException {
+        final long[] words = bits.toLongArray();
+        final long[] buffer = new long[2 * words.length + 1];
+        int size = 0;
+        int marker;
+        int i = 0;
+        do {
+            int running = 0;
+            while (i < words.length && words[i] == 0 && running < MAX_RUNNING_LENGTH) {
+                running++;
+                i++;
+            }
+            int literals = 0;
+            while (i + literals < words.length && words[i + literals] != 0 && literals < MAX_LITERAL_WORDS) {
+                literals++;
+            }
+            marker = size;
+            buffer[size++] = ((long) running << 1) | ((long) literals << 33);
+            System.arraycopy(words, i, buffer, size, literals);
+            size += literals;
+            i += literals;
+        } while (i < words.length);
+        out.writeInt(bits.length());
+        out.writeInt(size);
+        for (int j = 0; j < size; j++) {
+            out.writeLong(buffer[j]);
+        }
+        out.writeInt(marker);
+    }
+}
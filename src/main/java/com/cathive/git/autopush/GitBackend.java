@@ -0,0 +1,73 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The git operations of an autopush run, performed on the repository of a single worker. Refs are always read
+ * through the JGit {@link Repository} of the backend, whichever implementation writes them.
+ * <p>
+ * Failures to reach a remote repository are reported as transport exceptions, so that they are retried and count
+ * for the circuit breaker of the remote repository.
+ *
+ * @author Alexander Erben
+ */
+public interface GitBackend {
+
+    /**
+     * @return the repository the backend operates on
+     */
+    Repository getRepository();
+
+    /**
+     * Fetch a branch from a remote repository into its remote tracking branch. No other branches and no tags are
+     * fetched.
+     * @param remote name of the remote repository
+     * @param branch name of the branch to fetch
+     */
+    void fetch(String remote, String branch) throws GitAPIException, IOException;
+
+    /**
+     * Compare the given paths of the working copy with HEAD and the index.
+     * @param paths   the paths to scan, which may be the whole working copy
+     * @param visited counts the visited entries of the working copy, if the backend can tell
+     * @return the changes of the paths
+     */
+    ChangeSet status(DirtyPaths paths, LongAdder visited) throws GitAPIException, IOException;
+
+    /**
+     * Write the changes found by {@link #status(DirtyPaths, LongAdder)} to the index.
+     */
+    void add(ChangeSet changeSet) throws GitAPIException, IOException;
+
+    /**
+     * Commit the index and move HEAD to the new commit.
+     * @param message the commit message
+     * @param author  the author of the commit; the committer is taken from the configuration of the repository
+     * @return the id of the new commit
+     */
+    ObjectId commit(String message, PersonIdent author) throws GitAPIException, IOException;
+
+    /**
+     * Push a commit to a branch of a remote repository.
+     * @param remote  name of the remote repository
+     * @param head    the commit to push
+     * @param branch  name of the remote branch to update
+     * @param timeout seconds after which a stalled push fails, or 0 to wait forever
+     * @param monitor receives the progress of the push, if the backend reports it
+     * @throws IOException if the remote repository rejected the update
+     */
+    void push(String remote, ObjectId head, String branch, int timeout, ProgressMonitor monitor)
+            throws GitAPIException, IOException;
+
+    /**
+     * Persist state that the backend keeps between runs, e.g. caches. Called at the end of every run.
+     */
+    void persist() throws IOException;
+}
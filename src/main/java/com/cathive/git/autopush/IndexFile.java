@@ -0,0 +1,702 @@
+package com.cathive.git.autopush;
+
+import com.cathive.git.autopush.MappedIndex.IndexEntry;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.LockFailedException;
+import org.eclipse.jgit.internal.storage.file.FileSnapshot;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static com.cathive.git.autopush.MappedIndex.ASSUME_VALID;
+import static com.cathive.git.autopush.MappedIndex.ENTRY_LENGTH;
+import static com.cathive.git.autopush.MappedIndex.EXTENDED;
+import static com.cathive.git.autopush.MappedIndex.INTENT_TO_ADD;
+import static com.cathive.git.autopush.MappedIndex.LINK;
+import static com.cathive.git.autopush.MappedIndex.NAME_MASK;
+import static com.cathive.git.autopush.MappedIndex.NO_PATH;
+import static com.cathive.git.autopush.MappedIndex.SHARED_INDEX;
+import static com.cathive.git.autopush.MappedIndex.SIGNATURE;
+import static com.cathive.git.autopush.MappedIndex.SKIP_WORKTREE;
+import static com.cathive.git.autopush.MappedIndex.STAGE_SHIFT;
+import static com.cathive.git.autopush.MappedIndex.writeVarint;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+import static org.eclipse.jgit.lib.Constants.newMessageDigest;
+
+/**
+ * A {@link DirCache} that reads and writes the index file itself instead of leaving it to JGit, which only knows the
+ * index versions 2 and 3. Besides those, it reads and writes version 4, whose entries are not padded and store their
+ * path as the number of bytes to remove from the end of the previous path and the bytes to append, and split indexes.
+ * <p>
+ * A split index keeps most entries in a shared index file sharedindex.&lt;checksum&gt; next to the index, which only
+ * changes occasionally. The index itself only contains the entries replaced or added since, and its link extension
+ * names the shared index and marks its deleted and replaced entries. Writing the index of a million files after a run
+ * that staged a few of them therefore writes a few entries instead of all of them. Once the changes exceed
+ * {@link #MAX_PERCENT_CHANGE} percent of the entries, a new shared index is written, like git does.
+ * <p>
+ * The index is written in the version it was read in and stays split if it was split, unless the
+ * {@link IndexFileRepository} asks for another version or a split index. Optional extensions like the cache tree are
+ * dropped when writing, unlike JGit, which writes the TREE extension; autopush keeps its own cache tree in
+ * .git/autopush-cachetree instead, see {@link CacheTree}. Indexes with unknown required extensions cannot be read.
+ * Entries keep the stat data that JGit does not expose, so that native git does not have to refresh them.
+ * <p>
+ * The file is parsed by a {@link MappedIndex}. Edits through {@link #edit(Map)} do not read it into a DirCache at all
+ * as long as its format stays the same.
+ *
+ * @author Alexander Erben
+ */
+public class IndexFile extends DirCache {
+
+    private static Logger LOG = Logger.getLogger(IndexFile.class.getCanonicalName());
+
+    /**
+     * Percentage of changed entries of a split index above which a new shared index is written
+     */
+    private static final int MAX_PERCENT_CHANGE = 20;
+
+    /**
+     * Age after which unused shared indexes are deleted, the default of git
+     */
+    private static final long SHARED_INDEX_EXPIRY = TimeUnit.DAYS.toMillis(14);
+
+    private final IndexFileRepository repository;
+
+    private final File file;
+
+    private LockFile lock;
+
+    /**
+     * The state of the file when it was read or written last
+     */
+    private FileSnapshot snapshot;
+
+    /**
+     * The version of the file when it was read, or 0 if there was none
+     */
+    private int version;
+
+    /**
+     * The checksum of the shared index, or {@code null} if the index is not split
+     */
+    private ObjectId sharedId;
+
+    /**
+     * The shared index, whose entries are compared with those of this index when it is written
+     */
+    private MappedIndex shared;
+
+    public IndexFile(final IndexFileRepository repository) throws IOException {
+        super(repository.getIndexFile(), repository.getFS());
+        this.repository = repository;
+        this.file = repository.getIndexFile();
+    }
+
+    /**
+     * @return the index of the repository
+     */
+    public static IndexFile read(final IndexFileRepository repository) throws IOException {
+        final IndexFile index = new IndexFile(repository);
+        index.read();
+        return index;
+    }
+
+    /**
+     * @return the index of the repository, locked for writing
+     * @throws LockFailedException if the index is already locked
+     */
+    public static IndexFile lock(final IndexFileRepository repository) throws IOException {
+        final IndexFile index = lockForEdit(repository);
+        try {
+            index.read();
+        } catch (final IOException | RuntimeException | Error e) {
+            index.unlock();
+            throw e;
+        }
+        return index;
+    }
+
+    /**
+     * @return the index of the repository, locked for {@link #edit(Map)} but not read
+     * @throws LockFailedException if the index is already locked
+     */
+    public static IndexFile lockForEdit(final IndexFileRepository repository) throws IOException {
+        final IndexFile index = new IndexFile(repository);
+        if (!index.lock()) {
+            throw new LockFailedException(index.file);
+        }
+        return index;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        this.snapshot = null;
+        this.sharedId = null;
+        this.shared = null;
+    }
+
+    @Override
+    public boolean isOutdated() throws IOException {
+        return this.file.exists() && (this.snapshot == null || this.snapshot.isModified(this.file));
+    }
+
+    /**
+     * Read the index file unless it is unchanged since it was read or written last.
+     * @throws CorruptObjectException if the file or its shared index is not a valid index
+     */
+    @Override
+    public void read() throws IOException {
+        if (this.snapshot != null && !this.snapshot.isModified(this.file)) {
+            return;
+        }
+        final FileSnapshot snapshot = FileSnapshot.save(this.file);
+        final MappedIndex index = MappedIndex.open(this.file);
+        clear();
+        final DirCacheBuilder builder = builder();
+        for (int i = 0; i < index.getEntryCount(); i++) {
+            builder.add(index.getEntry(i));
+        }
+        builder.finish();
+        this.version = index.getVersion();
+        this.sharedId = index.getSharedId();
+        this.shared = index.getShared();
+        if (index.getVersion() != 0) {
+            this.snapshot = snapshot;
+        }
+    }
+
+    @Override
+    public boolean lock() throws IOException {
+        final LockFile lock = new LockFile(this.file, this.repository.getFS());
+        if (!lock.lock()) {
+            return false;
+        }
+        lock.setNeedSnapshot(true);
+        this.lock = lock;
+        return true;
+    }
+
+    /**
+     * Apply edits to the index file and write the result into the lock file, like a {@link DirCacheEditor} followed by
+     * {@link #write()}, but without reading the index if its format stays the same. Instead, the index file is mapped
+     * and the entries of the edited paths are found by a binary search; the other entries are copied as they are, or
+     * not written at all if the index is split. If the format changes or a split index would be rebased onto a new
+     * shared index, the index is read and written as a whole.
+     * @param edits the edits by path. A {@link DirCacheEditor.DeletePath} removes all entries of its path, any other
+     *              edit is applied to the first entry of its path or to a new one.
+     */
+    public void edit(final Map<String, DirCacheEditor.PathEdit> edits) throws IOException {
+        checkState(this.lock != null, "Index %s is not locked", this.file);
+        final MappedIndex index = MappedIndex.open(this.file);
+        final int version = index.getVersion();
+        if (version != 0 && (this.repository.getIndexVersion() == 0 || this.repository.getIndexVersion() == version)
+                && (index.isSplit() || !this.repository.isSplitIndex())
+                && edits.values().stream().noneMatch((edit) -> edit instanceof DirCacheEditor.DeleteTree)) {
+            final List<Edit> sorted = new ArrayList<>(edits.size());
+            edits.forEach((path, edit) -> sorted.add(new Edit(Constants.encode(path), edit)));
+            sorted.sort((a, b) -> MappedIndex.compare(a.path, b.path));
+            if (index.isSplit() ? editSplit(index, sorted) : editEntries(index, sorted)) {
+                this.version = version;
+                return;
+            }
+        }
+        read();
+        final DirCacheEditor editor = editor();
+        edits.values().forEach(editor::add);
+        editor.finish();
+        write();
+    }
+
+    /**
+     * Write the edited index by copying the unchanged entries from the mapped file.
+     * @return false if the edited entries need another version
+     */
+    private boolean editEntries(final MappedIndex index, final List<Edit> edits) throws IOException {
+        final int now = now();
+        final DirCacheEntry[] entries = new DirCacheEntry[edits.size()];
+        final int[] starts = new int[edits.size()];
+        final int[] ends = new int[edits.size()];
+        int count = index.getEntryCount();
+        for (int i = 0; i < edits.size(); i++) {
+            final int position = index.findEntry(edits.get(i).path);
+            starts[i] = position >= 0 ? position : -(position + 1);
+            ends[i] = position >= 0 ? index.nextEntry(position) : starts[i];
+            count -= ends[i] - starts[i];
+            if (!(edits.get(i).edit instanceof DirCacheEditor.DeletePath)) {
+                entries[i] = edits.get(i).apply(position >= 0 ? index.getEntry(position) : null, now);
+                if (!fits(entries[i], index.getVersion())) {
+                    return false;
+                }
+                count++;
+            }
+        }
+        try (OutputStream out = this.lock.getOutputStream()) {
+            final IndexOutput output = new IndexOutput(out, index.getVersion(), count);
+            int copied = 0;
+            for (int i = 0; i < edits.size(); i++) {
+                output.copy(index, copied, starts[i], now);
+                if (entries[i] != null) {
+                    output.entry(entries[i], false);
+                }
+                copied = ends[i];
+            }
+            output.copy(index, copied, index.getEntryCount(), now);
+            output.finish(null);
+        }
+        return true;
+    }
+
+    /**
+     * Write the edited changes of a split index against its shared index, which only requires the entries of the
+     * split index itself and those of the shared index that are edited.
+     * @return false if the changes exceed {@link #MAX_PERCENT_CHANGE} percent of the entries or the edited entries
+     * need another version
+     */
+    private boolean editSplit(final MappedIndex index, final List<Edit> edits) throws IOException {
+        final int now = now();
+        final MappedIndex shared = index.getShared();
+        final BitSet deleted = index.getDeleted();
+        final BitSet replaced = index.getReplaced();
+        final SortedMap<Integer, DirCacheEntry> replacements = index.getReplacements();
+        final List<DirCacheEntry> added = index.getAdded();
+        for (final Edit edit : edits) {
+            DirCacheEntry existing = null;
+            for (int i = find(added, edit.path, 0); i < added.size()
+                    && MappedIndex.compare(added.get(i).getRawPath(), edit.path) == 0; ) {
+                existing = existing == null ? added.get(i) : existing;
+                added.remove(i);
+            }
+            final int position = shared.findEntry(edit.path);
+            final int start = position >= 0 ? position : -(position + 1);
+            final int end = position >= 0 ? shared.nextEntry(position) : start;
+            for (int i = start; i < end; i++) {
+                if (!deleted.get(i)) {
+                    final DirCacheEntry entry = replaced.get(i) ? replacements.remove(i) : shared.getEntry(i);
+                    if (existing == null || entry.getStage() < existing.getStage()) {
+                        existing = entry;
+                    }
+                    deleted.set(i);
+                    replaced.clear(i);
+                }
+            }
+            if (edit.edit instanceof DirCacheEditor.DeletePath) {
+                continue;
+            }
+            final DirCacheEntry entry = edit.apply(existing, now);
+            if (!fits(entry, index.getVersion())) {
+                return false;
+            }
+            int i = start;
+            while (i < end && shared.getStage(i) != entry.getStage()) {
+                i++;
+            }
+            if (i < end) {
+                deleted.clear(i);
+                replaced.set(i);
+                replacements.put(i, entry);
+            } else {
+                added.add(find(added, entry.getRawPath(), entry.getStage()), entry);
+            }
+        }
+        final int count = shared.getEntryCount() - deleted.cardinality() + added.size();
+        final int changes = deleted.cardinality() + replaced.cardinality() + added.size();
+        if ((long) changes * 100 > (long) count * MAX_PERCENT_CHANGE) {
+            return false;
+        }
+        for (final DirCacheEntry entry : replacements.values()) {
+            smudge(entry, now);
+        }
+        for (final DirCacheEntry entry : added) {
+            smudge(entry, now);
+        }
+        keepShared(index.getSharedId());
+        final List<DirCacheEntry> entries = new ArrayList<>(replacements.values());
+        entries.addAll(added);
+        try (OutputStream out = this.lock.getOutputStream()) {
+            write(out, index.getVersion(), entries.toArray(new DirCacheEntry[entries.size()]), replacements.size(),
+                    link(index.getSharedId(), deleted, replaced));
+        }
+        return true;
+    }
+
+    /**
+     * @return the position of the first of the sorted entries that is not before the given path and stage
+     */
+    private static int find(final List<DirCacheEntry> entries, final byte[] path, final int stage) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            final DirCacheEntry entry = entries.get(middle);
+            final int order = MappedIndex.compare(entry.getRawPath(), path);
+            if (order < 0 || (order == 0 && entry.getStage() < stage)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return false if an entry has extended flags, which version 2 cannot store
+     */
+    private static boolean fits(final DirCacheEntry entry, final int version) {
+        return version > 2 || !(entry.isSkipWorkTree() || entry.isIntentToAdd());
+    }
+
+    /**
+     * Smudge an entry modified in the given second, so that its file is compared by content until it is staged again.
+     */
+    private static void smudge(final DirCacheEntry entry, final int now) {
+        if (entry.mightBeRacilyClean(now, 0)) {
+            entry.smudgeRacilyClean();
+        }
+    }
+
+    private static int now() {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    /**
+     * Write the entries into the lock file, either completely or, if the index is split, as the changes against
+     * its shared index. Entries modified in the current second are smudged, so that their files are compared by
+     * content until they are staged again.
+     */
+    @Override
+    public void write() throws IOException {
+        checkState(this.lock != null, "Index %s is not locked", this.file);
+        final DirCacheEntry[] entries = new DirCacheEntry[getEntryCount()];
+        for (int i = 0; i < entries.length; i++) {
+            entries[i] = getEntry(i);
+        }
+        final int now = now();
+        int version = this.repository.getIndexVersion() != 0 ? this.repository.getIndexVersion()
+                : Math.max(this.version, 2);
+        for (final DirCacheEntry entry : entries) {
+            smudge(entry, now);
+            if (!fits(entry, version)) {
+                version = 3;
+            }
+        }
+        try (OutputStream out = this.lock.getOutputStream()) {
+            if (this.repository.isSplitIndex() || this.sharedId != null) {
+                writeSplit(out, version, entries);
+            } else {
+                write(out, version, entries, 0, null);
+            }
+        }
+        this.version = version;
+    }
+
+    /**
+     * Write the changes against the shared index, or a new shared index if there is none or if there are too many.
+     * Entries are compared with the shared index by their fingerprints, as edits may change entries in place.
+     */
+    private void writeSplit(final OutputStream out, final int version, final DirCacheEntry[] entries)
+            throws IOException {
+        if (this.shared != null) {
+            final ByteBuffer fixed = ByteBuffer.allocate(ENTRY_LENGTH + 2);
+            final int sharedCount = this.shared.getEntryCount();
+            final BitSet deleted = new BitSet();
+            final BitSet replaced = new BitSet();
+            final List<DirCacheEntry> changed = new ArrayList<>();
+            final List<DirCacheEntry> added = new ArrayList<>();
+            int i = 0;
+            int j = 0;
+            while (i < sharedCount || j < entries.length) {
+                final int order = i == sharedCount ? 1 : j == entries.length ? -1
+                        : this.shared.compare(i, entries[j].getRawPath(), entries[j].getStage());
+                if (order < 0) {
+                    deleted.set(i++);
+                } else if (order > 0) {
+                    added.add(entries[j++]);
+                } else {
+                    final int length = encode(entries[j], entries[j].getRawPath().length, fixed);
+                    if (MappedIndex.fingerprint(fixed, 0, length) != this.shared.getFingerprint(i)) {
+                        replaced.set(i);
+                        changed.add(entries[j]);
+                    }
+                    i++;
+                    j++;
+                }
+            }
+            final int changes = deleted.cardinality() + changed.size() + added.size();
+            if ((long) changes * 100 <= (long) entries.length * MAX_PERCENT_CHANGE) {
+                keepShared(this.sharedId);
+                final int replacing = changed.size();
+                changed.addAll(added);
+                write(out, version, changed.toArray(new DirCacheEntry[changed.size()]), replacing,
+                        link(this.sharedId, deleted, replaced));
+                return;
+            }
+        }
+        final ObjectId sharedId = writeShared(version, entries);
+        this.sharedId = sharedId;
+        this.shared = MappedIndex.open(new File(this.file.getParentFile(), SHARED_INDEX + sharedId.name()));
+        write(out, version, new DirCacheEntry[0], 0, link(sharedId, new BitSet(), new BitSet()));
+    }
+
+    /**
+     * Touch the shared index of the index, which keeps it from expiring.
+     */
+    private void keepShared(final ObjectId sharedId) throws IOException {
+        final File sharedFile = new File(this.file.getParentFile(), SHARED_INDEX + sharedId.name());
+        if (!sharedFile.setLastModified(System.currentTimeMillis())) {
+            throw new IOException(format("Shared index %s of %s is missing", sharedFile, this.file));
+        }
+    }
+
+    /**
+     * Write all entries into a new shared index and delete expired shared indexes.
+     * @return the checksum of the shared index
+     */
+    private ObjectId writeShared(final int version, final DirCacheEntry[] entries) throws IOException {
+        final File directory = this.file.getParentFile();
+        final File temporary = File.createTempFile("sharedindex_", null, directory);
+        final ObjectId id;
+        try {
+            try (FileOutputStream out = new FileOutputStream(temporary)) {
+                id = write(out, version, entries, 0, null);
+            }
+            final File sharedFile = new File(directory, SHARED_INDEX + id.name());
+            if (!sharedFile.exists()) {
+                Files.move(temporary.toPath(), sharedFile.toPath(), ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+        final File[] expired = directory.listFiles((dir, name) -> name.startsWith(SHARED_INDEX)
+                && !name.equals(SHARED_INDEX + id.name()));
+        final long expiry = System.currentTimeMillis() - SHARED_INDEX_EXPIRY;
+        for (final File sharedFile : expired != null ? expired : new File[0]) {
+            if (sharedFile.lastModified() < expiry && !sharedFile.delete()) {
+                LOG.warning(format("Could not delete expired shared index %s", sharedFile));
+            }
+        }
+        return id;
+    }
+
+    /**
+     * @return the contents of a link extension
+     */
+    private static byte[] link(final ObjectId sharedId, final BitSet deleted, final BitSet replaced)
+            throws IOException {
+        final ByteArrayOutputStream link = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(link);
+        sharedId.copyRawTo(out);
+        EwahBitmap.write(deleted, out);
+        EwahBitmap.write(replaced, out);
+        return link.toByteArray();
+    }
+
+    @Override
+    public boolean commit() {
+        final LockFile lock = this.lock;
+        checkState(lock != null, "Index %s is not locked", this.file);
+        this.lock = null;
+        if (!lock.commit()) {
+            return false;
+        }
+        this.snapshot = lock.getCommitSnapshot();
+        return true;
+    }
+
+    @Override
+    public void unlock() {
+        final LockFile lock = this.lock;
+        if (lock != null) {
+            this.lock = null;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Write an index file.
+     * @param stripped the number of entries at the start that replace entries of a shared index, whose paths are left
+     *                 out
+     * @param link     the contents of the link extension, or {@code null} if the index is not split
+     * @return the checksum of the file
+     */
+    private static ObjectId write(final OutputStream file, final int version, final DirCacheEntry[] entries,
+                                  final int stripped, final byte[] link) throws IOException {
+        final IndexOutput out = new IndexOutput(file, version, entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            out.entry(entries[i], i < stripped);
+        }
+        return out.finish(link);
+    }
+
+    /**
+     * Encode the stat data, object id and flags of an entry.
+     * @param pathLength the length of the path that is written for the entry
+     * @param fixed      the buffer to encode into, from its start
+     * @return the length of the encoded data
+     */
+    private static int encode(final DirCacheEntry entry, final int pathLength, final ByteBuffer fixed) {
+        final IndexEntry read = entry instanceof IndexEntry ? (IndexEntry) entry : null;
+        fixed.clear();
+        putTime(fixed, entry.getCreationTime(), read != null ? read.ctimeNanos : -1);
+        putTime(fixed, entry.getLastModified(), read != null ? read.mtimeNanos : -1);
+        fixed.putInt(read != null ? read.dev : 0);
+        fixed.putInt(read != null ? read.ino : 0);
+        fixed.putInt(entry.getRawMode());
+        fixed.putInt(read != null ? read.uid : 0);
+        fixed.putInt(read != null ? read.gid : 0);
+        fixed.putInt(entry.getLength());
+        entry.getObjectId().copyRawTo(fixed.array(), fixed.position());
+        fixed.position(fixed.position() + OBJECT_ID_LENGTH);
+        final int extended = (entry.isSkipWorkTree() ? SKIP_WORKTREE : 0) | (entry.isIntentToAdd() ? INTENT_TO_ADD : 0);
+        fixed.putShort((short) ((entry.isAssumeValid() ? ASSUME_VALID : 0) | (extended != 0 ? EXTENDED : 0)
+                | (entry.getStage() << STAGE_SHIFT) | Math.min(pathLength, NAME_MASK)));
+        if (extended != 0) {
+            fixed.putShort((short) extended);
+        }
+        return fixed.position();
+    }
+
+    /**
+     * Encode a time as seconds and nanoseconds.
+     * @param nanos the nanoseconds of the time as read from the index, which are kept if they match the milliseconds
+     *              of the time, or -1 if unknown
+     */
+    private static void putTime(final ByteBuffer fixed, final long millis, final int nanos) {
+        final int millisOfSecond = (int) (millis % 1000);
+        fixed.putInt((int) (millis / 1000));
+        fixed.putInt(nanos >= 0 && nanos / 1000000 == millisOfSecond ? nanos : millisOfSecond * 1000000);
+    }
+
+    /**
+     * An edit of a path, see {@link #edit(Map)}
+     */
+    private static class Edit {
+
+        private final byte[] path;
+
+        private final DirCacheEditor.PathEdit edit;
+
+        private Edit(final byte[] path, final DirCacheEditor.PathEdit edit) {
+            this.path = path;
+            this.edit = edit;
+        }
+
+        /**
+         * Apply the edit to the first entry of the path, or to a new entry if there is none, and smudge the result if
+         * it was modified in the given second.
+         * @throws IllegalArgumentException if the edit does not set the mode of a new entry, like a
+         *                                  {@link DirCacheEditor}
+         */
+        private DirCacheEntry apply(final DirCacheEntry existing, final int now) {
+            final DirCacheEntry entry = existing != null ? existing : new DirCacheEntry(this.path);
+            this.edit.apply(entry);
+            if (entry.getRawMode() == 0) {
+                throw new IllegalArgumentException(format("File mode not set for path %s", entry.getPathString()));
+            }
+            smudge(entry, now);
+            return entry;
+        }
+    }
+
+    /**
+     * Writes the header, entries and extensions of an index file, followed by its checksum
+     */
+    private static class IndexOutput {
+
+        private final OutputStream file;
+
+        private final MessageDigest digest = newMessageDigest();
+
+        private final DataOutputStream out;
+
+        private final int version;
+
+        private final ByteBuffer fixed = ByteBuffer.allocate(ENTRY_LENGTH + 2);
+
+        /**
+         * The path of the last written entry, which the path of the next one is compressed against in version 4
+         */
+        private byte[] previous = NO_PATH;
+
+        private IndexOutput(final OutputStream file, final int version, final int count) throws IOException {
+            this.file = file;
+            this.version = version;
+            this.out = new DataOutputStream(new BufferedOutputStream(new DigestOutputStream(file, this.digest),
+                    64 * 1024));
+            this.out.writeInt(SIGNATURE);
+            this.out.writeInt(version);
+            this.out.writeInt(count);
+        }
+
+        /**
+         * @param stripped set if the entry replaces an entry of a shared index, whose path is left out
+         */
+        private void entry(final DirCacheEntry entry, final boolean stripped) throws IOException {
+            final byte[] path = stripped ? NO_PATH : entry.getRawPath();
+            final int length = encode(entry, path.length, this.fixed);
+            this.out.write(this.fixed.array(), 0, length);
+            if (this.version == 4) {
+                int common = 0;
+                while (common < path.length && common < this.previous.length
+                        && path[common] == this.previous[common]) {
+                    common++;
+                }
+                writeVarint(this.out, this.previous.length - common);
+                this.out.write(path, common, path.length - common);
+                this.out.write(0);
+                this.previous = path;
+            } else {
+                this.out.write(path);
+                this.out.write(new byte[8 - (length + path.length) % 8]);
+            }
+        }
+
+        /**
+         * Copy entries of an index that is not split, see {@link MappedIndex#copyEntries}.
+         */
+        private void copy(final MappedIndex index, final int from, final int to, final int now) throws IOException {
+            this.previous = index.copyEntries(this.out, from, to, this.previous, now);
+        }
+
+        /**
+         * @param link the contents of the link extension, or {@code null} if the index is not split
+         * @return the checksum of the file
+         */
+        private ObjectId finish(final byte[] link) throws IOException {
+            if (link != null) {
+                this.out.writeInt(LINK);
+                this.out.writeInt(link.length);
+                this.out.write(link);
+            }
+            this.out.flush();
+            final byte[] checksum = this.digest.digest();
+            this.file.write(checksum);
+            return ObjectId.fromRaw(checksum);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.BaseRepositoryBuilder;
+
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A repository whose index is read and written as an {@link IndexFile}, which also understands index version 4 and
+ * split indexes. Every reader of the index goes through this repository, including the status and commit commands of
+ * JGit.
+ *
+ * @author Alexander Erben
+ */
+public class IndexFileRepository extends FileRepository {
+
+    /**
+     * The version the index is written in, or 0 to keep the version it was read in
+     */
+    private volatile int indexVersion;
+
+    /**
+     * If set, the index is written as a split index
+     */
+    private volatile boolean splitIndex;
+
+    public IndexFileRepository(final BaseRepositoryBuilder<?, ?> builder) throws IOException {
+        super(builder);
+    }
+
+    /**
+     * @param version the version the index is written in, 2, 3 or 4, or 0 to keep the version it was read in
+     * @param split   set to write a split index; an index that is already split stays split either way
+     */
+    public void setIndexFormat(final int version, final boolean split) {
+        checkArgument(version == 0 || (version >= 2 && version <= 4), "Unsupported index version: " + version);
+        this.indexVersion = version;
+        this.splitIndex = split;
+    }
+
+    public int getIndexVersion() {
+        return this.indexVersion;
+    }
+
+    public boolean isSplitIndex() {
+        return this.splitIndex;
+    }
+
+    @Override
+    public DirCache readDirCache() throws IOException {
+        return IndexFile.read(this);
+    }
+
+    @Override
+    public DirCache lockDirCache() throws IOException {
+        return IndexFile.lock(this);
+    }
+}
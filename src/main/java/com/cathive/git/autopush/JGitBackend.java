@@ -0,0 +1,380 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.api.errors.ConcurrentRefUpdateException;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.LockFailedException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.RepositoryState;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.TagOpt;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Constants.R_REMOTES;
+
+/**
+ * Performs the git operations in process with JGit. The content ids of files are cached in a {@link StatCache}
+ * between runs. Scanning and staging may be spread over several threads, the objects of a run may be written into
+ * packs instead of loose objects, and commits may be built from the tree of HEAD instead of the index.
+ *
+ * @author Alexander Erben
+ */
+public class JGitBackend implements GitBackend {
+
+    private static Logger LOG = Logger.getLogger(JGitBackend.class.getCanonicalName());
+
+    private final Git git;
+
+    /**
+     * Content ids of files known from earlier scans, persisted in the git directory
+     */
+    private final StatCache statCache;
+
+    /**
+     * Tree ids of the directories of the index, persisted in the git directory
+     */
+    private final CacheTree cacheTree;
+
+    /**
+     * Writes the changes found by a scan to the index
+     */
+    private ChangeSetStager stager;
+
+    /**
+     * The pool that hashes and compresses the blobs of staged files, or {@code null} to stage them one by one
+     */
+    private ForkJoinPool stagePool;
+
+    /**
+     * If set, the objects of each stage and commit are written into a pack instead of loose objects
+     */
+    private boolean packObjects;
+
+    /**
+     * Scans the working copy on several threads. If absent, the working copy is scanned by a status command.
+     */
+    private ParallelScanner parallelScanner;
+
+    /**
+     * If set, commits are built from the tree of HEAD and the added files instead of the index
+     */
+    private boolean commitFromHead;
+
+    /**
+     * The files inserted by the last {@link #add(ChangeSet)} when committing from HEAD, applied to the index once
+     * they have been committed
+     */
+    private ChangeSetStager.Staged pending;
+
+    /**
+     * The paths whose changes were already in the index when the pending files were inserted
+     */
+    private Set<String> pendingIndexChanges;
+
+    public JGitBackend(final Git git) {
+        this.git = git;
+        this.statCache = new StatCache(git.getRepository());
+        this.statCache.load();
+        this.cacheTree = new CacheTree(git.getRepository());
+        this.cacheTree.load();
+        this.stager = new ChangeSetStager(git.getRepository(), this.statCache, this.cacheTree);
+    }
+
+    /**
+     * Scan the working copy on the threads of the given pool, one task per top-level directory.
+     */
+    public void scanInParallel(final ForkJoinPool pool) {
+        this.parallelScanner = new ParallelScanner(this.git.getRepository(), this.statCache, pool);
+    }
+
+    /**
+     * Hash and compress the blobs of staged files on the threads of the given pool.
+     */
+    public void stageInParallel(final ForkJoinPool pool) {
+        this.stagePool = pool;
+        this.stager = new ChangeSetStager(this.git.getRepository(), this.statCache, this.cacheTree, pool,
+                this.packObjects);
+    }
+
+    /**
+     * Write the objects of each run into pack files instead of loose objects. The blobs are written into one pack
+     * when staging, the trees and the commit into another one when committing.
+     */
+    public void packObjects() {
+        this.packObjects = true;
+        this.stager = new ChangeSetStager(this.git.getRepository(), this.statCache, this.cacheTree, this.stagePool,
+                true);
+    }
+
+    /**
+     * Build the tree of each commit from the tree of HEAD and the added files with a {@link CommitTreeBuilder}, so
+     * that only the trees along changed paths are written. The index is only updated after the commit, by a single
+     * edit of the changed entries. This only saves work if the repository is an {@link IndexFileRepository}, which
+     * edits the index in place; JGit rewrites the whole index for the edit.
+     */
+    public void commitFromHead() {
+        if (!(this.git.getRepository() instanceof IndexFileRepository)) {
+            LOG.warning(format("Index of %s is rewritten after every commit from HEAD, as it is not edited in place.",
+                    this.git.getRepository().getWorkTree()));
+        }
+        this.commitFromHead = true;
+    }
+
+    @Override
+    public Repository getRepository() {
+        return this.git.getRepository();
+    }
+
+    @Override
+    public void fetch(final String remote, final String branch) throws GitAPIException {
+        this.git.fetch()
+                .setRemote(remote)
+                .setRefSpecs(new RefSpec(format("+%s%s:%s%s/%s", R_HEADS, branch, R_REMOTES, remote, branch)))
+                .setTagOpt(TagOpt.NO_TAGS)
+                .call();
+    }
+
+    @Override
+    public ChangeSet status(final DirtyPaths paths, final LongAdder visited) throws GitAPIException, IOException {
+        if (this.parallelScanner != null) {
+            return this.parallelScanner.scan(paths, visited);
+        }
+        final StatusCommand status = this.git.status()
+                .setWorkingTreeIt(new CountingTreeIterator(this.git.getRepository(), visited, this.statCache));
+        if (!paths.isEverything()) {
+            paths.getPaths().forEach(status::addPath);
+        }
+        return ChangeSet.of(status.call());
+    }
+
+    @Override
+    public void add(final ChangeSet changeSet) throws IOException {
+        if (this.commitFromHead) {
+            this.pending = this.stager.insert(changeSet);
+            this.pendingIndexChanges = changeSet.getStaged();
+        } else {
+            this.stager.stage(changeSet);
+        }
+    }
+
+    @Override
+    public ObjectId commit(final String message, final PersonIdent author) throws GitAPIException, IOException {
+        final RepositoryState state = this.git.getRepository().getRepositoryState();
+        if (state != RepositoryState.SAFE) {
+            // only the commit command knows the parents and message of a merge or cherry-pick in progress
+            if (this.pending != null) {
+                this.stager.apply(this.pending);
+                this.pending = null;
+                this.pendingIndexChanges = null;
+            }
+            LOG.info(format("%s of %s, committing it with the commit command.", state.getDescription(),
+                    this.git.getRepository().getWorkTree()));
+            return commitWithCommand(message, author);
+        }
+        if (this.pending != null) {
+            return commitFromHead(message, author);
+        }
+        return commitIndex(message, author);
+    }
+
+    /**
+     * Commit the index with a {@link org.eclipse.jgit.api.CommitCommand}, after which the {@link CacheTree} starts
+     * over with the committed index.
+     */
+    private ObjectId commitWithCommand(final String message, final PersonIdent author)
+            throws GitAPIException, IOException {
+        final Repository repository = this.git.getRepository();
+        final ObjectId id = this.git.commit()
+                .setMessage(message)
+                .setAuthor(author)
+                .setCommitter(new PersonIdent(repository))
+                .call();
+        this.cacheTree.reset(CacheTree.checksum(repository.getIndexFile()));
+        return id;
+    }
+
+    /**
+     * Commit the index like a {@link org.eclipse.jgit.api.CommitCommand}, but take the trees of unchanged directories
+     * from the {@link CacheTree}, and write the trees and the commit into a pack if objects are packed. The index is
+     * mapped rather than read, see {@link MappedIndex}. HEAD is only updated once the objects have been written.
+     * If the cached trees do not belong to the index, e.g. because git changed it, the commit is left to a
+     * {@link org.eclipse.jgit.api.CommitCommand} and the cache starts over with the committed index. Only used while no
+     * merge or cherry-pick is in progress, whose parents and message are left to the commit command as well.
+     */
+    private ObjectId commitIndex(final String message, final PersonIdent author)
+            throws GitAPIException, IOException {
+        final Repository repository = this.git.getRepository();
+        final ObjectInserter inserter = this.packObjects ? new PackInserter(repository)
+                : repository.newObjectInserter();
+        try {
+            final ObjectId head = repository.resolve(HEAD + "^{commit}");
+            final CommitBuilder commit = new CommitBuilder();
+            final LockFile lock = new LockFile(repository.getIndexFile(), repository.getFS());
+            if (!lock.lock()) {
+                throw new LockFailedException(repository.getIndexFile());
+            }
+            try {
+                if (this.cacheTree.matches(CacheTree.checksum(repository.getIndexFile()))) {
+                    commit.setTreeId(this.cacheTree.writeTree(MappedIndex.open(repository.getIndexFile()),
+                            inserter));
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (commit.getTreeId() == null) {
+                LOG.info(format("Index of %s changed outside of autopush, committing it without the cache tree.",
+                        repository.getWorkTree()));
+                return commitWithCommand(message, author);
+            }
+            if (head != null) {
+                commit.setParentId(head);
+            }
+            commit.setAuthor(author);
+            commit.setCommitter(new PersonIdent(repository));
+            commit.setMessage(message);
+            final ObjectId id = inserter.insert(commit);
+            inserter.flush();
+            this.cacheTree.flushed();
+            updateHead(head, id, message);
+            return id;
+        } finally {
+            inserter.release();
+        }
+    }
+
+    /**
+     * Commit the tree of HEAD with the pending files and the changes already in the index, then apply the pending
+     * files to the index. If the tree does not differ from the one of HEAD, e.g. because the index could not be
+     * updated after the last commit, no commit is made.
+     */
+    private ObjectId commitFromHead(final String message, final PersonIdent author)
+            throws GitAPIException, IOException {
+        final Repository repository = this.git.getRepository();
+        final ChangeSetStager.Staged staged = this.pending;
+        final Set<String> indexChanges = this.pendingIndexChanges;
+        this.pending = null;
+        this.pendingIndexChanges = null;
+        final ObjectInserter inserter = this.packObjects ? new PackInserter(repository)
+                : repository.newObjectInserter();
+        final ObjectReader reader = repository.newObjectReader();
+        ObjectId id;
+        try {
+            final ObjectId head = repository.resolve(HEAD + "^{commit}");
+            final ObjectId headTree = head != null ? new RevWalk(reader).parseCommit(head).getTree() : null;
+            final CommitTreeBuilder tree = new CommitTreeBuilder(reader, inserter);
+            for (final DirCacheEntry entry : staged.getUpdated()) {
+                tree.update(entry.getPathString(), entry.getObjectId(),
+                        entry.getRawMode() != 0 ? entry.getFileMode() : null);
+            }
+            staged.getRemoved().forEach(tree::remove);
+            if (!indexChanges.isEmpty()) {
+                final MappedIndex index = MappedIndex.open(repository.getIndexFile());
+                for (final String path : indexChanges) {
+                    final DirCacheEntry entry = index.getEntry(path);
+                    if (tree.isChanged(path)) {
+                        continue; // the working copy is newer
+                    } else if (entry == null) {
+                        tree.remove(path);
+                    } else {
+                        tree.update(path, entry.getObjectId(), entry.getFileMode());
+                    }
+                }
+            }
+            final ObjectId treeId = tree.build(headTree);
+            if (treeId.equals(headTree)) {
+                inserter.flush();
+                id = head;
+            } else {
+                final CommitBuilder commit = new CommitBuilder();
+                commit.setTreeId(treeId);
+                if (head != null) {
+                    commit.setParentId(head);
+                }
+                commit.setAuthor(author);
+                commit.setCommitter(new PersonIdent(repository));
+                commit.setMessage(message);
+                id = inserter.insert(commit);
+                inserter.flush();
+                updateHead(head, id, message);
+            }
+        } finally {
+            reader.release();
+            inserter.release();
+        }
+        try {
+            this.stager.apply(staged);
+        } catch (final IOException e) {
+            LOG.warning(format("Could not update the index of %s after the commit, it will be committed again: %s",
+                    repository.getWorkTree(), e));
+        }
+        return id;
+    }
+
+    /**
+     * Move HEAD from the given commit to a new one.
+     * @param head the commit HEAD is expected to point to, or {@code null} if there is none yet
+     */
+    private void updateHead(final ObjectId head, final ObjectId id, final String message)
+            throws GitAPIException, IOException {
+        final RefUpdate update = this.git.getRepository().updateRef(HEAD);
+        update.setNewObjectId(id);
+        update.setExpectedOldObjectId(head != null ? head : ObjectId.zeroId());
+        update.setRefLogMessage("commit: " + message, false);
+        final RefUpdate.Result result = update.forceUpdate();
+        if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FAST_FORWARD
+                && result != RefUpdate.Result.FORCED) {
+            throw new ConcurrentRefUpdateException(JGitText.get().couldNotLockHEAD, update.getRef(), result);
+        }
+    }
+
+    @Override
+    public void push(final String remote, final ObjectId head, final String branch, final int timeout,
+                     final ProgressMonitor monitor) throws GitAPIException, IOException {
+        final String remoteBranch = R_HEADS + branch;
+        final Iterable<PushResult> results = this.git.push()
+                .setRemote(remote)
+                .setRefSpecs(new RefSpec(head.name() + ":" + remoteBranch))
+                .setTimeout(timeout)
+                .setProgressMonitor(monitor)
+                .call();
+        for (final PushResult result : results) {
+            final RemoteRefUpdate update = result.getRemoteUpdate(remoteBranch);
+            if (update != null && update.getStatus() != RemoteRefUpdate.Status.OK
+                    && update.getStatus() != RemoteRefUpdate.Status.UP_TO_DATE) {
+                throw new IOException(format("Push to %s of %s rejected: %s %s", remoteBranch, remote,
+                        update.getStatus(), update.getMessage() != null ? update.getMessage() : ""));
+            }
+        }
+    }
+
+    /**
+     * Save the content ids found since the last call in the stat cache, and the tree ids in the cache tree.
+     */
+    @Override
+    public void persist() throws IOException {
+        this.statCache.save();
+        this.cacheTree.save();
+    }
+}
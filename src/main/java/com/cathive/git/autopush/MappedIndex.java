@@ -0,0 +1,839 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.SystemReader;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.String.format;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+import static org.eclipse.jgit.lib.Constants.newMessageDigest;
+
+/**
+ * A read-only view of an index file that is memory-mapped instead of read into the heap, and whose entries are only
+ * decoded when they are accessed. Opening the index builds a table of the positions of its entries and nothing else;
+ * paths are found by a binary search that compares them in the mapped file. Looking up a few paths of an index of a
+ * million files therefore does not create a million entries that the garbage collector has to move around.
+ * <p>
+ * Understands the index versions 2 to 4 and split indexes, whose shared index is mapped as well. As version 4
+ * compresses every path against the previous one, the full path of every {@link #RESTART_INTERVAL}th entry is kept,
+ * from which the paths in between are decoded. On Windows, where a mapped file cannot be replaced until the mapping is
+ * garbage collected, the file is read into the heap instead.
+ *
+ * @author Alexander Erben
+ */
+public class MappedIndex {
+
+    static final int SIGNATURE = 0x44495243; // "DIRC"
+
+    static final int LINK = 0x6c696e6b; // "link"
+
+    static final String SHARED_INDEX = "sharedindex.";
+
+    /**
+     * Length of the stat data, object id and flags at the start of every entry
+     */
+    static final int ENTRY_LENGTH = 62;
+
+    static final int ASSUME_VALID = 0x8000;
+
+    static final int EXTENDED = 0x4000;
+
+    static final int STAGE_SHIFT = 12;
+
+    static final int STAGE_MASK = 0x3000;
+
+    static final int NAME_MASK = 0xfff;
+
+    static final int SKIP_WORKTREE = 0x4000;
+
+    static final int INTENT_TO_ADD = 0x2000;
+
+    static final byte[] NO_PATH = new byte[0];
+
+    private static final int MTIME = 8;
+
+    private static final int SIZE = 36;
+
+    private static final int FLAGS = ENTRY_LENGTH - 2;
+
+    /**
+     * Number of entries of version 4 per kept full path
+     */
+    private static final int RESTART_INTERVAL = 16;
+
+    private final File file;
+
+    /**
+     * The contents of the file, or {@code null} if there is none
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * The version of the file, or 0 if there is none
+     */
+    private final int version;
+
+    private final ObjectId checksum;
+
+    /**
+     * The positions of the entries in the file, followed by the position after the last entry
+     */
+    private final int[] offsets;
+
+    /**
+     * The full path of every {@link #RESTART_INTERVAL}th entry if the version is 4
+     */
+    private final byte[][] restarts;
+
+    /**
+     * The number of entries without a path at the start, which replace entries of the shared index
+     */
+    private final int stripped;
+
+    /**
+     * The checksum of the shared index, or {@code null} if the index is not split
+     */
+    private final ObjectId sharedId;
+
+    private final MappedIndex shared;
+
+    private final BitSet deleted;
+
+    private final BitSet replaced;
+
+    /**
+     * The entry of this file that replaces an entry of the shared index, by the position of the replaced entry
+     */
+    private final Map<Integer, Integer> replacements;
+
+    /**
+     * The entries of a split index in order: the position of an entry of the shared index if not negative, otherwise
+     * -(position + 1) of an entry added by this file
+     */
+    private final int[] merged;
+
+    private MappedIndex(final File file, final ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        if (buffer == null) {
+            this.version = 0;
+            this.checksum = null;
+            this.offsets = new int[1];
+            this.restarts = null;
+            this.stripped = 0;
+            this.sharedId = null;
+            this.shared = null;
+            this.deleted = new BitSet();
+            this.replaced = new BitSet();
+            this.replacements = new HashMap<>();
+            this.merged = null;
+            return;
+        }
+        try {
+            final int end = buffer.limit() - OBJECT_ID_LENGTH;
+            if (end < 12 || buffer.getInt(0) != SIGNATURE) {
+                throw new CorruptObjectException(format("Not an index file: %s", file));
+            }
+            this.version = buffer.getInt(4);
+            if (this.version < 2 || this.version > 4) {
+                throw new CorruptObjectException(format("Unsupported version %d of index %s", this.version, file));
+            }
+            this.checksum = verify(buffer, file);
+            final int count = buffer.getInt(8);
+            if (count < 0) {
+                throw new CorruptObjectException(format("Invalid entry count in index %s", file));
+            }
+            this.offsets = new int[count + 1];
+            this.restarts = this.version == 4 ? new byte[(count + RESTART_INTERVAL - 1) / RESTART_INTERVAL][] : null;
+            final ByteBuffer in = buffer.duplicate();
+            in.position(12);
+            byte[] path = new byte[256];
+            int pathLength = 0;
+            int stripped = 0;
+            for (int i = 0; i < count; i++) {
+                final int start = in.position();
+                this.offsets[i] = start;
+                final int flags = in.getShort(start + FLAGS) & 0xffff;
+                if ((flags & EXTENDED) != 0 && this.version < 3) {
+                    throw new CorruptObjectException(format("Extended flags in index %s of version 2", file));
+                }
+                in.position(nameStart(start, flags));
+                if (this.version == 4) {
+                    final int strip = readVarint(in);
+                    final int suffix = terminator(in, in.position()) - in.position();
+                    if (strip > pathLength) {
+                        throw new CorruptObjectException(format("Invalid path compression in index %s", file));
+                    }
+                    if (pathLength - strip + suffix > path.length) {
+                        path = Arrays.copyOf(path, 2 * (pathLength - strip + suffix));
+                    }
+                    in.get(path, pathLength - strip, suffix);
+                    in.get();
+                    pathLength = pathLength - strip + suffix;
+                    if (i % RESTART_INTERVAL == 0) {
+                        this.restarts[i / RESTART_INTERVAL] = Arrays.copyOf(path, pathLength);
+                    }
+                } else {
+                    pathLength = (flags & NAME_MASK) < NAME_MASK ? flags & NAME_MASK
+                            : terminator(in, in.position()) - in.position();
+                    in.position(start + ((in.position() - start + pathLength + 8) & ~7));
+                }
+                if (pathLength == 0 && stripped++ != i) {
+                    throw new CorruptObjectException(format("Entry without path in index %s", file));
+                }
+                if (in.position() > end) {
+                    throw new CorruptObjectException(format("Truncated entry in index %s", file));
+                }
+            }
+            this.offsets[count] = in.position();
+            this.stripped = stripped;
+            ObjectId sharedId = null;
+            BitSet deleted = new BitSet();
+            BitSet replaced = new BitSet();
+            while (in.position() < end) {
+                final int signature = in.getInt();
+                final int length = in.getInt();
+                final int extensionEnd = in.position() + length;
+                if (length < 0 || extensionEnd > end) {
+                    throw new CorruptObjectException(format("Truncated extension in index %s", file));
+                }
+                if (signature == LINK) {
+                    final byte[] id = new byte[OBJECT_ID_LENGTH];
+                    in.get(id);
+                    sharedId = ObjectId.fromRaw(id);
+                    if (in.position() < extensionEnd) {
+                        deleted = EwahBitmap.read(in);
+                        replaced = EwahBitmap.read(in);
+                    }
+                } else if (signature >>> 24 < 'A' || signature >>> 24 > 'Z') {
+                    throw new CorruptObjectException(format("Unsupported extension %08x in index %s", signature,
+                            file));
+                }
+                in.position(extensionEnd);
+            }
+            this.sharedId = sharedId;
+            this.deleted = deleted;
+            this.replaced = replaced;
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new CorruptObjectException(format("Invalid index %s: %s", file, e));
+        }
+        this.replacements = new HashMap<>();
+        if (this.sharedId == null) {
+            if (this.stripped > 0) {
+                throw new CorruptObjectException(format("Entry without path in index %s", file));
+            }
+            this.shared = null;
+            this.merged = null;
+        } else {
+            this.shared = openShared();
+            this.merged = merge();
+        }
+    }
+
+    /**
+     * @return a view of an index file, which is empty if the file does not exist
+     * @throws CorruptObjectException if the file or its shared index is not a valid index
+     */
+    public static MappedIndex open(final File file) throws IOException {
+        return new MappedIndex(file, map(file));
+    }
+
+    /**
+     * Map a file into memory, or read it into the heap on Windows, where a mapped file cannot be replaced or deleted
+     * until the mapping is garbage collected.
+     * @return the contents of a file, or {@code null} if it does not exist
+     */
+    static ByteBuffer map(final File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (SystemReader.getInstance().isWindows()) {
+                final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // read to the end
+                }
+                buffer.flip();
+                return buffer;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (final NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private MappedIndex openShared() throws IOException {
+        final File sharedFile = new File(this.file.getParentFile(), SHARED_INDEX + this.sharedId.name());
+        final ByteBuffer buffer = map(sharedFile);
+        if (buffer == null) {
+            throw new CorruptObjectException(format("Shared index %s of %s is missing", sharedFile, this.file));
+        }
+        final MappedIndex shared = new MappedIndex(sharedFile, buffer);
+        if (shared.sharedId != null || !this.sharedId.equals(shared.checksum)) {
+            throw new CorruptObjectException(format("Invalid shared index %s", sharedFile));
+        }
+        final int count = shared.getEntryCount();
+        if (this.deleted.length() > count || this.replaced.length() > count || this.deleted.intersects(this.replaced)
+                || this.replaced.cardinality() != this.stripped) {
+            throw new CorruptObjectException(format("Invalid link extension in index %s", this.file));
+        }
+        return shared;
+    }
+
+    /**
+     * Order the entries of the shared index that are not deleted and the added entries of this file. Each added entry
+     * is placed by a binary search over the shared index, so that only the paths of the few added entries and of
+     * those they are compared with are decoded.
+     */
+    private int[] merge() {
+        int replacing = 0;
+        for (int i = this.replaced.nextSetBit(0); i >= 0; i = this.replaced.nextSetBit(i + 1)) {
+            this.replacements.put(i, replacing++);
+        }
+        final int sharedCount = this.shared.getEntryCount();
+        final int added = count() - this.stripped;
+        final int[] merged = new int[sharedCount - this.deleted.cardinality() + added];
+        int next = 0;
+        int position = 0;
+        for (int i = this.stripped; i < count(); i++) {
+            final byte[] path = filePath(i);
+            final int stage = fileStage(i);
+            int low = position;
+            int high = sharedCount;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (this.shared.compare(middle, path, stage) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            for (; position < low; position++) {
+                if (!this.deleted.get(position)) {
+                    merged[next++] = position;
+                }
+            }
+            merged[next++] = -(i + 1);
+        }
+        for (; position < sharedCount; position++) {
+            if (!this.deleted.get(position)) {
+                merged[next++] = position;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * @return the version of the file, or 0 if there is none
+     */
+    public int getVersion() {
+        return this.version;
+    }
+
+    /**
+     * @return the checksum at the end of the file, or {@code null} if there is none
+     */
+    public ObjectId getChecksum() {
+        return this.checksum;
+    }
+
+    public boolean isSplit() {
+        return this.sharedId != null;
+    }
+
+    /**
+     * @return the number of entries, including those of the shared index of a split index
+     */
+    public int getEntryCount() {
+        return this.merged != null ? this.merged.length : count();
+    }
+
+    /**
+     * Find the first entry of a path, like {@link org.eclipse.jgit.dircache.DirCache#findEntry(String)}.
+     * @return the position of the entry, or -(position + 1) of the first entry after the path if there is none
+     */
+    public int findEntry(final String path) {
+        return findEntry(Constants.encode(path));
+    }
+
+    /**
+     * @see #findEntry(String)
+     */
+    public int findEntry(final byte[] path) {
+        int low = 0;
+        int high = getEntryCount();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (comparePath(middle, path) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low < getEntryCount() && comparePath(low, path) == 0 ? low : -(low + 1);
+    }
+
+    /**
+     * @return the position after the last entry with the path of the entry at the given position
+     */
+    public int nextEntry(final int position) {
+        final byte[] path = getPath(position);
+        int next = position + 1;
+        while (next < getEntryCount() && comparePath(next, path) == 0) {
+            next++;
+        }
+        return next;
+    }
+
+    /**
+     * @return the first entry of a path, or {@code null} if the path is not in the index
+     */
+    public DirCacheEntry getEntry(final String path) {
+        final int position = findEntry(path);
+        return position >= 0 ? getEntry(position) : null;
+    }
+
+    /**
+     * @return a new entry decoded from the file
+     */
+    public DirCacheEntry getEntry(final int position) {
+        if (this.merged == null) {
+            return fileEntry(position, null);
+        }
+        final int entry = this.merged[position];
+        if (entry < 0) {
+            return fileEntry(-(entry + 1), null);
+        }
+        final Integer replacement = this.replacements.get(entry);
+        return replacement != null ? fileEntry(replacement, this.shared.filePath(entry))
+                : this.shared.fileEntry(entry, null);
+    }
+
+    public byte[] getPath(final int position) {
+        if (this.merged == null) {
+            return filePath(position);
+        }
+        final int entry = this.merged[position];
+        return entry < 0 ? filePath(-(entry + 1)) : this.shared.filePath(entry);
+    }
+
+    public String getPathString(final int position) {
+        return RawParseUtils.decode(getPath(position));
+    }
+
+    public int getStage(final int position) {
+        if (this.merged == null) {
+            return fileStage(position);
+        }
+        final int entry = this.merged[position];
+        return entry < 0 ? fileStage(-(entry + 1)) : this.shared.fileStage(entry);
+    }
+
+    /**
+     * Compare the entry at a position with a path and stage, in the order of the index.
+     */
+    public int compare(final int position, final byte[] path, final int stage) {
+        final int order = comparePath(position, path);
+        return order != 0 ? order : getStage(position) - stage;
+    }
+
+    /**
+     * @return a 64 bit FNV-1a hash of the stat data, object id and flags of an entry as written in the file, which
+     * tells whether an entry has changed since it was written, see {@link #fingerprint(ByteBuffer, int, int)}
+     */
+    public long getFingerprint(final int position) {
+        if (this.merged == null) {
+            return fileFingerprint(position);
+        }
+        final int entry = this.merged[position];
+        if (entry < 0) {
+            return fileFingerprint(-(entry + 1));
+        }
+        final Integer replacement = this.replacements.get(entry);
+        return replacement != null ? fileFingerprint(replacement) : this.shared.fileFingerprint(entry);
+    }
+
+    /**
+     * @return the shared index of a split index, or {@code null} if the index is not split
+     */
+    MappedIndex getShared() {
+        return this.shared;
+    }
+
+    /**
+     * @return {@code true} if the file is memory-mapped rather than read into the heap
+     */
+    boolean isMapped() {
+        return this.buffer instanceof MappedByteBuffer;
+    }
+
+    ObjectId getSharedId() {
+        return this.sharedId;
+    }
+
+    /**
+     * @return a copy of the entries of the shared index that a split index deletes
+     */
+    BitSet getDeleted() {
+        return (BitSet) this.deleted.clone();
+    }
+
+    /**
+     * @return a copy of the entries of the shared index that a split index replaces
+     */
+    BitSet getReplaced() {
+        return (BitSet) this.replaced.clone();
+    }
+
+    /**
+     * @return the entries that replace entries of the shared index, decoded, by the positions of the replaced entries
+     */
+    SortedMap<Integer, DirCacheEntry> getReplacements() {
+        final SortedMap<Integer, DirCacheEntry> replacements = new TreeMap<>();
+        this.replacements.forEach((position, entry) ->
+                replacements.put(position, fileEntry(entry, this.shared.filePath(position))));
+        return replacements;
+    }
+
+    /**
+     * @return the entries added by a split index to its shared index, decoded
+     */
+    List<DirCacheEntry> getAdded() {
+        final List<DirCacheEntry> added = new ArrayList<>(count() - this.stripped);
+        for (int i = this.stripped; i < count(); i++) {
+            added.add(fileEntry(i, null));
+        }
+        return added;
+    }
+
+    /**
+     * Copy entries of an index that is not split as they are written in the file. Entries modified in the given
+     * second are smudged, see {@link IndexFile#write()}. If the version is 4, the path of the first entry is
+     * compressed against the given previous path, after which the paths of the others are still valid.
+     * @param previous the path written before the entries if the version is 4
+     * @return the path of the last copied entry if the version is 4, otherwise the given previous path
+     */
+    byte[] copyEntries(final DataOutput out, final int from, final int to, final byte[] previous, final int now)
+            throws IOException {
+        checkState(this.merged == null, "Cannot copy entries of the split index %s", this.file);
+        if (from >= to) {
+            return previous;
+        }
+        final byte[] scratch = new byte[64 * 1024];
+        int position = from;
+        if (this.version == 4) {
+            writeFixed(out, position, now, scratch);
+            final byte[] path = filePath(position);
+            int common = 0;
+            while (common < path.length && common < previous.length && path[common] == previous[common]) {
+                common++;
+            }
+            writeVarint(out, previous.length - common);
+            out.write(path, common, path.length - common);
+            out.write(0);
+            position++;
+        }
+        int run = this.offsets[position];
+        for (; position < to; position++) {
+            if (this.buffer.getInt(this.offsets[position] + MTIME) == now) {
+                writeRange(out, run, this.offsets[position], scratch);
+                final int fixedEnd = writeFixed(out, position, now, scratch);
+                writeRange(out, fixedEnd, this.offsets[position + 1], scratch);
+                run = this.offsets[position + 1];
+            }
+        }
+        writeRange(out, run, this.offsets[to], scratch);
+        return this.version == 4 ? filePath(to - 1) : previous;
+    }
+
+    /**
+     * Write the stat data, object id and flags of an entry, with the size zeroed if it was modified in the given
+     * second.
+     * @return the position after them in the file
+     */
+    private int writeFixed(final DataOutput out, final int position, final int now, final byte[] scratch)
+            throws IOException {
+        final int start = this.offsets[position];
+        final int length = nameStart(start, this.buffer.getShort(start + FLAGS) & 0xffff) - start;
+        final ByteBuffer in = this.buffer.duplicate();
+        in.position(start);
+        in.get(scratch, 0, length);
+        if (this.buffer.getInt(start + MTIME) == now) {
+            Arrays.fill(scratch, SIZE, SIZE + 4, (byte) 0);
+        }
+        out.write(scratch, 0, length);
+        return start + length;
+    }
+
+    private void writeRange(final DataOutput out, final int from, final int to, final byte[] scratch)
+            throws IOException {
+        final ByteBuffer in = this.buffer.duplicate();
+        in.position(from);
+        for (int remaining = to - from; remaining > 0; ) {
+            final int length = Math.min(remaining, scratch.length);
+            in.get(scratch, 0, length);
+            out.write(scratch, 0, length);
+            remaining -= length;
+        }
+    }
+
+    private int count() {
+        return this.offsets.length - 1;
+    }
+
+    private static int nameStart(final int start, final int flags) {
+        return start + ENTRY_LENGTH + ((flags & EXTENDED) != 0 ? 2 : 0);
+    }
+
+    private int fileStage(final int position) {
+        return (this.buffer.getShort(this.offsets[position] + FLAGS) & STAGE_MASK) >>> STAGE_SHIFT;
+    }
+
+    private long fileFingerprint(final int position) {
+        final int start = this.offsets[position];
+        return fingerprint(this.buffer, start, nameStart(start, this.buffer.getShort(start + FLAGS) & 0xffff) - start);
+    }
+
+    /**
+     * @param path the path of the entry, or {@code null} to decode it from the file
+     */
+    private DirCacheEntry fileEntry(final int position, final byte[] path) {
+        return new IndexEntry(path != null ? path : filePath(position), this.buffer, this.offsets[position]);
+    }
+
+    /**
+     * Decode the path of an entry of this file, which is empty for entries that replace entries of the shared index.
+     */
+    private byte[] filePath(final int position) {
+        final int start = this.offsets[position];
+        final int name = nameStart(start, this.buffer.getShort(start + FLAGS) & 0xffff);
+        final ByteBuffer in = this.buffer.duplicate();
+        try {
+            if (this.version != 4) {
+                final byte[] path = new byte[nameLength(start, name)];
+                in.position(name);
+                in.get(path);
+                return path;
+            }
+            final byte[] restart = this.restarts[position / RESTART_INTERVAL];
+            byte[] path = Arrays.copyOf(restart, 2 * restart.length + 64);
+            int length = restart.length;
+            for (int i = position - position % RESTART_INTERVAL + 1; i <= position; i++) {
+                final int entry = this.offsets[i];
+                in.position(nameStart(entry, this.buffer.getShort(entry + FLAGS) & 0xffff));
+                final int strip = readVarint(in);
+                final int suffix = terminator(in, in.position()) - in.position();
+                if (length - strip + suffix > path.length) {
+                    path = Arrays.copyOf(path, 2 * (length - strip + suffix));
+                }
+                in.get(path, length - strip, suffix);
+                length = length - strip + suffix;
+            }
+            return Arrays.copyOf(path, length);
+        } catch (final CorruptObjectException e) {
+            throw new IllegalStateException(e); // checked when the file was opened
+        }
+    }
+
+    private int nameLength(final int start, final int name) throws CorruptObjectException {
+        final int length = this.buffer.getShort(start + FLAGS) & NAME_MASK;
+        return length < NAME_MASK ? length : terminator(this.buffer, name) - name;
+    }
+
+    /**
+     * Compare the path of an entry with the given one, in place unless the version is 4.
+     */
+    private int comparePath(final int position, final byte[] path) {
+        if (this.merged != null) {
+            final int entry = this.merged[position];
+            return entry < 0 ? fileComparePath(-(entry + 1), path) : this.shared.fileComparePath(entry, path);
+        }
+        return fileComparePath(position, path);
+    }
+
+    private int fileComparePath(final int position, final byte[] path) {
+        if (this.version == 4) {
+            return compare(filePath(position), path);
+        }
+        final int start = this.offsets[position];
+        final int name = nameStart(start, this.buffer.getShort(start + FLAGS) & 0xffff);
+        final int length;
+        try {
+            length = nameLength(start, name);
+        } catch (final CorruptObjectException e) {
+            throw new IllegalStateException(e); // checked when the file was opened
+        }
+        for (int i = 0; i < Math.min(length, path.length); i++) {
+            final int a = this.buffer.get(name + i) & 0xff;
+            final int b = path[i] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - path.length;
+    }
+
+    /**
+     * Compare two paths bytewise, in the order of the index
+     */
+    static int compare(final byte[] a, final byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            if (a[i] != b[i]) {
+                return (a[i] & 0xff) - (b[i] & 0xff);
+            }
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * @return a 64 bit FNV-1a hash of the encoded stat data, object id and flags of an entry, which tells whether an
+     * entry has changed since it was written
+     */
+    static long fingerprint(final ByteBuffer buffer, final int start, final int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < start + length; i++) {
+            hash ^= buffer.get(i) & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Write a number in the variable length encoding of git, which adds one to the higher bits of every byte that has
+     * a successor, so that every number has only one encoding.
+     */
+    static void writeVarint(final DataOutput out, final int value) throws IOException {
+        final byte[] bytes = new byte[5];
+        int position = bytes.length - 1;
+        long remaining = value;
+        bytes[position] = (byte) (remaining & 0x7f);
+        while ((remaining >>= 7) != 0) {
+            bytes[--position] = (byte) (0x80 | (--remaining & 0x7f));
+        }
+        out.write(bytes, position, bytes.length - position);
+    }
+
+    private static int readVarint(final ByteBuffer buffer) {
+        int b = buffer.get();
+        long value = b & 0x7f;
+        while ((b & 0x80) != 0) {
+            b = buffer.get();
+            value = ((value + 1) << 7) | (b & 0x7f);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Verify the checksum at the end of the buffer, unless it is zero because git was told to skip it.
+     * @return the checksum
+     */
+    private static ObjectId verify(final ByteBuffer buffer, final File file) throws CorruptObjectException {
+        final int end = buffer.limit() - OBJECT_ID_LENGTH;
+        final ByteBuffer content = buffer.duplicate();
+        content.position(0).limit(end);
+        final byte[] expected = new byte[OBJECT_ID_LENGTH];
+        ((ByteBuffer) buffer.duplicate().position(end)).get(expected);
+        final ObjectId checksum = ObjectId.fromRaw(expected);
+        if (!checksum.equals(ObjectId.zeroId())) {
+            final MessageDigest digest = newMessageDigest();
+            digest.update(content);
+            if (!MessageDigest.isEqual(expected, digest.digest())) {
+                throw new CorruptObjectException(format("Checksum mismatch in index %s", file));
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * @return the position of the next NUL byte from the given one
+     */
+    private static int terminator(final ByteBuffer buffer, final int from) throws CorruptObjectException {
+        for (int i = from; i < buffer.limit(); i++) {
+            if (buffer.get(i) == 0) {
+                return i;
+            }
+        }
+        throw new CorruptObjectException("Unterminated path in index");
+    }
+
+    /**
+     * An entry read from an index file, which keeps the stat data and flags JGit does not expose
+     */
+    static class IndexEntry extends DirCacheEntry {
+
+        final int ctimeNanos;
+
+        final int mtimeNanos;
+
+        final int dev;
+
+        final int ino;
+
+        final int uid;
+
+        final int gid;
+
+        private final int extendedFlags;
+
+        /**
+         * @param path  the path of the entry, which is not read from the buffer
+         * @param start the position of the entry in the buffer
+         */
+        private IndexEntry(final byte[] path, final ByteBuffer buffer, final int start) {
+            super(path, (buffer.getShort(start + FLAGS) & STAGE_MASK) >>> STAGE_SHIFT);
+            final int flags = buffer.getShort(start + FLAGS);
+            this.ctimeNanos = buffer.getInt(start + 4);
+            this.mtimeNanos = buffer.getInt(start + 12);
+            this.dev = buffer.getInt(start + 16);
+            this.ino = buffer.getInt(start + 20);
+            this.uid = buffer.getInt(start + 28);
+            this.gid = buffer.getInt(start + 32);
+            this.extendedFlags = (flags & EXTENDED) != 0 ? buffer.getShort(start + ENTRY_LENGTH) & 0xffff : 0;
+            setCreationTime(millis(buffer.getInt(start), this.ctimeNanos));
+            setLastModified(millis(buffer.getInt(start + MTIME), this.mtimeNanos));
+            setFileMode(FileMode.fromBits(buffer.getInt(start + 24)));
+            setLength(buffer.getInt(start + SIZE));
+            final byte[] id = new byte[OBJECT_ID_LENGTH];
+            for (int i = 0; i < OBJECT_ID_LENGTH; i++) {
+                id[i] = buffer.get(start + 40 + i);
+            }
+            setObjectIdFromRaw(id, 0);
+            setAssumeValid((flags & ASSUME_VALID) != 0);
+        }
+
+        private static long millis(final int seconds, final int nanos) {
+            return (seconds & 0xffffffffL) * 1000 + nanos / 1000000;
+        }
+
+        @Override
+        public boolean isSkipWorkTree() {
+            return (this.extendedFlags & SKIP_WORKTREE) != 0;
+        }
+
+        @Override
+        public boolean isIntentToAdd() {
+            return (this.extendedFlags & INTENT_TO_ADD) != 0;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.cathive.git.autopush;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+
+/**
+ * Publishes the {@link RepositoryMetrics} of all repositories. The meters are exported as MBeans in the "autopush"
+ * JMX domain, and in the Prometheus text format on http://host:port/metrics.
+ *
+ * @author Alexander Erben
+ */
+@Configuration
+public class MetricsConfiguration {
+
+    private static Logger LOG = Logger.getLogger(MetricsConfiguration.class.getCanonicalName());
+
+    /**
+     * Export the meters via JMX. Defaults to true.
+     */
+    @Value("${metrics.jmx.enabled}")
+    private boolean jmxEnabled;
+
+    /**
+     * Port of the Prometheus endpoint. Defaults to 0, thus no endpoint is started.
+     */
+    @Value("${metrics.prometheus.port}")
+    private int prometheusPort;
+
+    private HttpServer prometheusServer;
+
+    @Bean(destroyMethod = "close")
+    public CompositeMeterRegistry meterRegistry() throws IOException {
+        final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+        if (this.jmxEnabled) {
+            registry.add(new JmxMeterRegistry(new JmxConfig() {
+                @Override
+                public String get(final String key) {
+                    return null;
+                }
+
+                @Override
+                public String domain() {
+                    return "autopush";
+                }
+            }, Clock.SYSTEM));
+        }
+        if (this.prometheusPort > 0) {
+            final PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+            registry.add(prometheus);
+            this.prometheusServer = HttpServer.create(new InetSocketAddress(this.prometheusPort), 0);
+            this.prometheusServer.createContext("/metrics", (exchange) -> {
+                final byte[] body = prometheus.scrape().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", TextFormat.CONTENT_TYPE_004);
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            this.prometheusServer.start();
+            LOG.info(format("Serving Prometheus metrics on port %d.", this.prometheusPort));
+        }
+        return registry;
+    }
+
+    @PreDestroy
+    public void stopPrometheusServer() {
+        if (this.prometheusServer != null) {
+            this.prometheusServer.stop(0);
+        }
+    }
+}
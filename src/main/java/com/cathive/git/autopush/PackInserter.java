@@ -0,0 +1,302 @@
+package com.cathive.git.autopush;
+
+import com.google.common.io.ByteStreams;
+import org.eclipse.jgit.internal.storage.file.ObjectDirectory;
+import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.String.format;
+import static org.eclipse.jgit.lib.Constants.encodeASCII;
+import static org.eclipse.jgit.lib.Constants.encodedTypeString;
+import static org.eclipse.jgit.lib.Constants.newMessageDigest;
+
+/**
+ * An {@link ObjectInserter} that writes all objects inserted until a flush into a single new pack file, instead of
+ * one loose object file per object. On flush, the pack is completed, indexed and made known to the repository; only
+ * then the inserted objects become readable. Objects that already exist in the repository are skipped.
+ * <p>
+ * Unlike the inserters of JGit, this inserter may be used by several threads at once. Objects smaller than
+ * {@link #BUFFER_THRESHOLD} are hashed and compressed by the calling thread and only appended to the pack under the
+ * lock of the inserter; larger objects are streamed into the pack under the lock.
+ *
+ * @author Alexander Erben
+ */
+public class PackInserter extends ObjectInserter {
+
+    private static Logger LOG = Logger.getLogger(PackInserter.class.getCanonicalName());
+
+    /**
+     * Objects up to this size are compressed into memory by the inserting thread
+     */
+    private static final int BUFFER_THRESHOLD = 1024 * 1024;
+
+    private final Repository repository;
+
+    private final ObjectDirectory objectDirectory;
+
+    private final int compression;
+
+    /**
+     * The pack being written, or {@code null} if nothing has been inserted since the last flush
+     */
+    private File packFile;
+
+    private RandomAccessFile pack;
+
+    private final ObjectIdOwnerMap<PackedObjectInfo> objects = new ObjectIdOwnerMap<>();
+
+    public PackInserter(final Repository repository) {
+        checkState(repository.getObjectDatabase() instanceof ObjectDirectory,
+                "Objects can only be packed in repositories on the file system");
+        this.repository = repository;
+        this.objectDirectory = (ObjectDirectory) repository.getObjectDatabase();
+        this.compression = repository.getConfig().get(CoreConfig.KEY).getCompression();
+    }
+
+    @Override
+    public ObjectId insert(final int type, final long length, final InputStream in) throws IOException {
+        if (length > BUFFER_THRESHOLD) {
+            return stream(type, length, in);
+        }
+        final byte[] data = new byte[(int) length];
+        ByteStreams.readFully(in, data);
+        final ObjectId id = new Formatter().idFor(type, data); // the digest of this inserter is not thread-safe
+        if (isKnown(id)) {
+            return id;
+        }
+        final ByteArrayOutputStream entry = new ByteArrayOutputStream(data.length / 2 + 16);
+        writeEntryHeader(entry, type, length);
+        final Deflater deflater = new Deflater(this.compression);
+        try (OutputStream out = new DeflaterOutputStream(entry, deflater)) {
+            out.write(data);
+        } finally {
+            deflater.end();
+        }
+        final byte[] bytes = entry.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        synchronized (this) {
+            if (!this.objects.contains(id)) {
+                final long offset = open().length();
+                this.pack.seek(offset);
+                this.pack.write(bytes);
+                add(id, offset, (int) crc.getValue());
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Compress an object into the pack while reading it. If it turns out to exist already, the pack is truncated
+     * again.
+     */
+    private synchronized ObjectId stream(final int type, final long length, final InputStream in)
+            throws IOException {
+        final long offset = open().length();
+        this.pack.seek(offset);
+        final CRC32 crc = new CRC32();
+        final MessageDigest digest = newMessageDigest();
+        final Deflater deflater = new Deflater(this.compression);
+        try {
+            final OutputStream out = new CheckedOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(this.pack.getChannel())), crc);
+            writeEntryHeader(out, type, length);
+            digest.update(encodedTypeString(type));
+            digest.update((byte) ' ');
+            digest.update(encodeASCII(length));
+            digest.update((byte) 0);
+            final DeflaterOutputStream deflated = new DeflaterOutputStream(out, deflater);
+            final byte[] buffer = new byte[8192];
+            long remaining = length;
+            while (remaining > 0) {
+                final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    throw new EOFException("Object is shorter than " + length + " bytes");
+                }
+                digest.update(buffer, 0, read);
+                deflated.write(buffer, 0, read);
+                remaining -= read;
+            }
+            deflated.finish();
+            out.flush(); // the channel belongs to the pack and stays open
+        } catch (final IOException | RuntimeException e) {
+            this.pack.setLength(offset);
+            throw e;
+        } finally {
+            deflater.end();
+        }
+        final ObjectId id = ObjectId.fromRaw(digest.digest());
+        if (this.objects.contains(id) || this.repository.hasObject(id)) {
+            this.pack.setLength(offset);
+        } else {
+            add(id, offset, (int) crc.getValue());
+        }
+        return id;
+    }
+
+    /**
+     * Complete the pack, write its index and move both into the pack directory of the repository. If every inserted
+     * object was known already, the pack is discarded instead, so that no empty pack is left behind.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (this.pack == null) {
+            return;
+        }
+        if (this.objects.isEmpty()) {
+            release();
+            return;
+        }
+        final List<PackedObjectInfo> sorted = new ArrayList<>(this.objects.size());
+        this.objects.forEach(sorted::add);
+        sorted.sort(PackedObjectInfo::compareTo);
+        final FileChannel channel = this.pack.getChannel();
+        channel.write((ByteBuffer) ByteBuffer.allocate(4).putInt(sorted.size()).flip(), 8);
+        final MessageDigest digest = newMessageDigest();
+        final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        channel.position(0);
+        while (channel.read(buffer) > 0) {
+            buffer.flip();
+            digest.update(buffer);
+            buffer.clear();
+        }
+        final byte[] checksum = digest.digest();
+        this.pack.seek(this.pack.length());
+        this.pack.write(checksum);
+        this.pack.getFD().sync();
+        this.pack.close();
+        this.pack = null;
+
+        final String name = "pack-" + ObjectId.fromRaw(checksum).name();
+        final File directory = this.packFile.getParentFile();
+        final File indexFile = new File(directory, this.packFile.getName().replace(".pack", ".idx"));
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(indexFile))) {
+            PackIndexWriter.createOldestPossible(out, sorted).write(sorted, checksum);
+        }
+        final File finalPack = new File(directory, name + ".pack");
+        final File finalIndex = new File(directory, name + ".idx");
+        move(this.packFile, finalPack);
+        move(indexFile, finalIndex); // the pack becomes visible to other processes with its index
+        this.packFile = null;
+        this.objects.clear();
+        this.objectDirectory.openPack(finalPack);
+    }
+
+    @Override
+    public synchronized void release() {
+        if (this.pack != null) {
+            try {
+                this.pack.close();
+            } catch (final IOException e) {
+                // the file is deleted anyway
+            }
+            this.pack = null;
+            this.packFile.delete();
+            this.packFile = null;
+            this.objects.clear();
+        }
+    }
+
+    @Override
+    public PackParser newPackParser(final InputStream in) throws IOException {
+        return this.repository.newObjectInserter().newPackParser(in);
+    }
+
+    /**
+     * @return a reader of the repository, which does not see objects that have not been flushed yet
+     */
+    @Override
+    public ObjectReader newReader() {
+        return this.objectDirectory.newReader();
+    }
+
+    private boolean isKnown(final ObjectId id) throws IOException {
+        synchronized (this) {
+            if (this.objects.contains(id)) {
+                return true;
+            }
+        }
+        return this.repository.hasObject(id);
+    }
+
+    /**
+     * @return the pack being written, created with a header whose object count is filled in on flush
+     */
+    private RandomAccessFile open() throws IOException {
+        if (this.pack == null) {
+            final File directory = new File(this.objectDirectory.getDirectory(), "pack");
+            directory.mkdirs();
+            this.packFile = File.createTempFile("insert_", ".pack", directory);
+            this.pack = new RandomAccessFile(this.packFile, "rw");
+            this.pack.write(new byte[]{'P', 'A', 'C', 'K', 0, 0, 0, 2, 0, 0, 0, 0});
+        }
+        return this.pack;
+    }
+
+    private void add(final ObjectId id, final long offset, final int crc) {
+        final PackedObjectInfo info = new PackedObjectInfo(id);
+        info.setOffset(offset);
+        info.setCRC(crc);
+        this.objects.add(info);
+    }
+
+    /**
+     * Write the type and inflated size of a pack entry, as a variable-length integer
+     */
+    private static void writeEntryHeader(final OutputStream out, final int type, final long length)
+            throws IOException {
+        long remaining = length >>> 4;
+        int b = (type << 4) | (int) (length & 0x0f);
+        while (remaining > 0) {
+            out.write(b | 0x80);
+            b = (int) (remaining & 0x7f);
+            remaining >>>= 7;
+        }
+        out.write(b);
+    }
+
+    /**
+     * Rename a file of the pack. If a file by the new name exists, it has the same content, as the name contains the
+     * checksum of the pack, and the renamed file is deleted instead.
+     */
+    private static void move(final File from, final File to) throws IOException {
+        if (from.renameTo(to)) {
+            return;
+        }
+        if (!to.exists()) {
+            throw new IOException("Could not rename " + from + " to " + to);
+        }
+        if (!from.delete()) {
+            LOG.warning(format("Could not delete %s, which duplicates %s", from, to));
+        }
+    }
+}
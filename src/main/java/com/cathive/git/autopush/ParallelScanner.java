@@ -0,0 +1,266 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.SkipWorkTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.eclipse.jgit.lib.Constants.DOT_GIT;
+import static org.eclipse.jgit.lib.Constants.HEAD;
+
+/**
+ * Scans a working copy for changes on several threads. The working copy is split into its top-level directories,
+ * each of which is compared against HEAD and the index by its own fork/join task. All files directly in the root
+ * directory are handled by one additional task. The index is read once and shared by all tasks. The results of the
+ * tasks are merged into a single {@link ChangeSet}, which equals the one computed by a
+ * {@link org.eclipse.jgit.api.StatusCommand}.
+ *
+ * @author Alexander Erben
+ */
+public class ParallelScanner {
+
+    private static final int HEAD_TREE = 0;
+
+    private static final int INDEX = 1;
+
+    private static final int WORKING_TREE = 2;
+
+    private final Repository repository;
+
+    private final StatCache statCache;
+
+    private final ForkJoinPool pool;
+
+    /**
+     * @param repository the repository to scan
+     * @param statCache  the content ids of files known from earlier scans
+     * @param pool       the pool that runs the tasks, usually shared by all repositories
+     */
+    public ParallelScanner(final Repository repository, final StatCache statCache, final ForkJoinPool pool) {
+        this.repository = repository;
+        this.statCache = statCache;
+        this.pool = pool;
+    }
+
+    /**
+     * Scan the given paths of the working copy.
+     * @param paths   the paths to scan, which may be the whole working copy
+     * @param visited counts the visited entries of the working copy
+     * @return the changes of the paths
+     * @throws IOException
+     */
+    public ChangeSet scan(final DirtyPaths paths, final LongAdder visited) throws IOException {
+        final DirCache index = this.repository.readDirCache();
+        index.getCacheTree(true); // build the cache tree once, the tasks only read it
+        final ObjectId headTree = headTree();
+        final Collection<TreeFilter> groups = paths.isEverything() ? topLevelGroups(index, headTree)
+                : dirtyPathGroups(paths.getPaths());
+        try {
+            return this.pool.invoke(new RecursiveTask<ChangeSet>() {
+
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected ChangeSet compute() {
+                    final List<ForkJoinTask<Changes>> tasks = new ArrayList<>();
+                    for (final TreeFilter group : groups) {
+                        tasks.add(ForkJoinTask.adapt(() -> scanGroup(index, headTree, group, visited)));
+                    }
+                    final Changes merged = new Changes();
+                    invokeAll(tasks).forEach((task) -> merged.addAll(task.join()));
+                    return merged.toChangeSet();
+                }
+            });
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private ObjectId headTree() throws IOException {
+        final ObjectId head = this.repository.resolve(HEAD);
+        if (head == null) {
+            return null;
+        }
+        final RevWalk walk = new RevWalk(this.repository);
+        try {
+            return walk.parseCommit(head).getTree();
+        } finally {
+            walk.release();
+        }
+    }
+
+    /**
+     * Split the whole working copy into one path filter for every top-level directory found in the working copy,
+     * the index or HEAD, plus one for all other top-level entries.
+     */
+    private Collection<TreeFilter> topLevelGroups(final DirCache index, final ObjectId headTree) throws IOException {
+        final Set<String> directories = new HashSet<>();
+        final Set<String> files = new HashSet<>();
+        final File[] children = this.repository.getWorkTree().listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                if (!DOT_GIT.equals(child.getName())) {
+                    (child.isDirectory() ? directories : files).add(child.getName());
+                }
+            }
+        }
+        for (int i = 0; i < index.getEntryCount(); i++) {
+            final String path = index.getEntry(i).getPathString();
+            final int slash = path.indexOf('/');
+            if (slash < 0) {
+                files.add(path);
+            } else {
+                directories.add(path.substring(0, slash));
+            }
+        }
+        if (headTree != null) {
+            final TreeWalk walk = new TreeWalk(this.repository);
+            try {
+                walk.addTree(headTree);
+                while (walk.next()) {
+                    (walk.isSubtree() ? directories : files).add(walk.getPathString());
+                }
+            } finally {
+                walk.release();
+            }
+        }
+        files.removeAll(directories);
+        final List<TreeFilter> groups = new ArrayList<>();
+        directories.forEach((directory) -> groups.add(PathFilterGroup.createFromStrings(directory)));
+        if (!files.isEmpty()) {
+            groups.add(PathFilterGroup.createFromStrings(files));
+        }
+        return groups;
+    }
+
+    /**
+     * Split dirty paths into one path filter for each of their top-level directories.
+     */
+    private static Collection<TreeFilter> dirtyPathGroups(final Set<String> paths) {
+        final Map<String, List<String>> byTopLevel = new TreeMap<>();
+        for (final String path : paths) {
+            final int slash = path.indexOf('/');
+            byTopLevel.computeIfAbsent(slash < 0 ? path : path.substring(0, slash), (key) -> new ArrayList<>())
+                    .add(path);
+        }
+        final List<TreeFilter> groups = new ArrayList<>();
+        byTopLevel.values().forEach((group) -> groups.add(PathFilterGroup.createFromStrings(group)));
+        return groups;
+    }
+
+    /**
+     * Compare the paths matched by a filter between HEAD, the index and the working copy, the same way
+     * {@link org.eclipse.jgit.lib.IndexDiff} does.
+     */
+    private Changes scanGroup(final DirCache index, final ObjectId headTree, final TreeFilter group,
+                              final LongAdder visited) {
+        final Changes changes = new Changes();
+        final ObjectReader reader = this.repository.newObjectReader();
+        try {
+            final TreeWalk walk = new TreeWalk(reader);
+            walk.setRecursive(true);
+            if (headTree != null) {
+                walk.addTree(headTree);
+            } else {
+                walk.addTree(new EmptyTreeIterator());
+            }
+            walk.addTree(new DirCacheIterator(index));
+            final CountingTreeIterator workingTree = new CountingTreeIterator(this.repository, visited, this.statCache);
+            walk.addTree(workingTree);
+            workingTree.setDirCacheIterator(walk, INDEX);
+            walk.setFilter(AndTreeFilter.create(new TreeFilter[]{
+                    group, new SkipWorkTreeFilter(INDEX), new IndexDiffFilter(INDEX, WORKING_TREE)}));
+            while (walk.next()) {
+                classify(walk, reader, changes);
+            }
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            reader.release();
+        }
+        return changes;
+    }
+
+    private static void classify(final TreeWalk walk, final ObjectReader reader, final Changes changes)
+            throws IOException {
+        if (walk.getRawMode(HEAD_TREE) == FileMode.TYPE_GITLINK || walk.getRawMode(INDEX) == FileMode.TYPE_GITLINK
+                || walk.getRawMode(WORKING_TREE) == FileMode.TYPE_GITLINK) {
+            return; // changes of submodules are not staged
+        }
+        final String path = walk.getPathString();
+        final DirCacheIterator indexEntry = walk.getTree(INDEX, DirCacheIterator.class);
+        final WorkingTreeIterator workingTreeEntry = walk.getTree(WORKING_TREE, WorkingTreeIterator.class);
+        final DirCacheEntry entry = indexEntry != null ? indexEntry.getDirCacheEntry() : null;
+        if (entry != null && entry.getStage() > 0) {
+            return; // conflicts are left to the user
+        }
+        final boolean inHead = walk.getRawMode(HEAD_TREE) != 0;
+        if (inHead && entry == null) {
+            changes.staged.add(path);
+        } else if (entry != null && (!inHead || walk.getRawMode(HEAD_TREE) != walk.getRawMode(INDEX)
+                || !walk.idEqual(HEAD_TREE, INDEX))) {
+            changes.staged.add(path);
+        }
+        if (entry != null) {
+            if (workingTreeEntry == null) {
+                changes.removed.add(path);
+            } else if (workingTreeEntry.isModified(entry, true, reader)) {
+                changes.modified.add(path);
+            }
+        } else if (workingTreeEntry != null && !workingTreeEntry.isEntryIgnored()) {
+            changes.untracked.add(path);
+        }
+    }
+
+    /**
+     * The mutable result of a single task
+     */
+    private static class Changes {
+
+        private final Set<String> untracked = new HashSet<>();
+
+        private final Set<String> modified = new HashSet<>();
+
+        private final Set<String> removed = new HashSet<>();
+
+        private final Set<String> staged = new HashSet<>();
+
+        private void addAll(final Changes other) {
+            this.untracked.addAll(other.untracked);
+            this.modified.addAll(other.modified);
+            this.removed.addAll(other.removed);
+            this.staged.addAll(other.staged);
+        }
+
+        private ChangeSet toChangeSet() {
+            return new ChangeSet(this.untracked, this.modified, this.removed, this.staged);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.IOException;
+
+/**
+ * A destination that every commit of a repository is delivered to, e.g. a remote repository. The last commit
+ * delivered to a target is recorded in its tracking ref, so that a worker can tell by reading two refs whether a
+ * target is behind.
+ *
+ * @author Alexander Erben
+ */
+public interface PushTarget {
+
+    /**
+     * @return a short name of the target, used in log messages and metrics
+     */
+    String getName();
+
+    /**
+     * @return the ref that points to the last commit delivered to this target
+     */
+    String getTrackingRef();
+
+    /**
+     * @return the circuit breaker that guards the target
+     */
+    CircuitBreaker getCircuitBreaker();
+
+    /**
+     * Deliver all commits up to the given one. The caller moves the tracking ref afterwards.
+     * @param backend performs the git operations of the repository
+     * @param head    the commit to deliver
+     * @param metrics the metrics of the repository
+     * @throws IOException if the target did not accept the commits
+     */
+    void push(GitBackend backend, ObjectId head, RepositoryMetrics metrics) throws GitAPIException, IOException;
+}
@@ -0,0 +1,64 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.io.IOException;
+
+import static org.eclipse.jgit.lib.Constants.R_REMOTES;
+
+/**
+ * Pushes commits to a branch of a remote repository configured in the repository. The remote tracking branch of
+ * that branch serves as tracking ref.
+ *
+ * @author Alexander Erben
+ */
+public class RemotePushTarget implements PushTarget {
+
+    private final String remote;
+
+    private final String branch;
+
+    private final int timeout;
+
+    private final CircuitBreaker circuitBreaker;
+
+    /**
+     * @param remote         name of the remote repository
+     * @param branch         name of the remote branch to push to
+     * @param timeout        seconds after which a stalled push fails, or 0 to wait forever
+     * @param circuitBreaker the circuit breaker of the remote repository
+     */
+    public RemotePushTarget(final String remote, final String branch, final int timeout,
+                            final CircuitBreaker circuitBreaker) {
+        this.remote = remote;
+        this.branch = branch;
+        this.timeout = timeout;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @Override
+    public String getName() {
+        return remote;
+    }
+
+    @Override
+    public String getTrackingRef() {
+        return R_REMOTES + this.remote + "/" + this.branch;
+    }
+
+    @Override
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Push the given commit to the remote branch.
+     * @throws IOException if the remote repository rejected the update
+     */
+    @Override
+    public void push(final GitBackend backend, final ObjectId head, final RepositoryMetrics metrics)
+            throws GitAPIException, IOException {
+        backend.push(this.remote, head, this.branch, this.timeout, metrics.pushMonitor());
+    }
+}
@@ -0,0 +1,154 @@
+package com.cathive.git.autopush;
+
+import java.util.List;
+
+import static com.google.common.base.MoreObjects.firstNonNull;
+import static com.google.common.base.MoreObjects.toStringHelper;
+
+/**
+ * Definition of a single repository that is backed up by autopush. Definitions are bound from the
+ * autopush.repositories list. Every value except the path is optional and falls back to the global remote.name,
+ * remote.branch, interval.cron, push.mirrors, bundle.directory and git.backend values. An empty remote name means
+ * that the repository has no remote repository, e.g. on hosts that only write bundles.
+ *
+ * @author Alexander Erben
+ */
+public class RepositoryDefinition {
+
+    /**
+     * Path to the working copy of a non-bare git repository.
+     */
+    private String path;
+
+    /**
+     * Name of the remote repository to push to.
+     */
+    private String remote;
+
+    /**
+     * Name of the remote branch to push to.
+     */
+    private String branch;
+
+    /**
+     * The cron expression for the interval of autopush attempts of this repository.
+     */
+    private String cron;
+
+    /**
+     * Names of further remote repositories that every commit is pushed to, besides the remote repository.
+     */
+    private List<String> mirrors;
+
+    /**
+     * Directory that every commit is written to as a git bundle. Empty if no bundles are written.
+     */
+    private String bundleDirectory;
+
+    /**
+     * The backend that performs the git operations, either "jgit" or "cli".
+     */
+    private String backend;
+
+    public RepositoryDefinition() {
+    }
+
+    public RepositoryDefinition(final String path, final String remote, final String branch, final String cron) {
+        this(path, remote, branch, cron, null, null, null);
+    }
+
+    public RepositoryDefinition(final String path, final String remote, final String branch, final String cron,
+                                final List<String> mirrors, final String bundleDirectory, final String backend) {
+        this.path = path;
+        this.remote = remote;
+        this.branch = branch;
+        this.cron = cron;
+        this.mirrors = mirrors;
+        this.bundleDirectory = bundleDirectory;
+        this.backend = backend;
+    }
+
+    /**
+     * Create a copy of this definition in which all values that have not been set are replaced by the given defaults.
+     */
+    public RepositoryDefinition withDefaults(final String remote, final String branch, final String cron,
+                                             final List<String> mirrors, final String bundleDirectory,
+                                             final String backend) {
+        return new RepositoryDefinition(this.path,
+                firstNonNull(this.remote, remote),
+                firstNonNull(this.branch, branch),
+                firstNonNull(this.cron, cron),
+                firstNonNull(this.mirrors, mirrors),
+                firstNonNull(this.bundleDirectory, bundleDirectory),
+                firstNonNull(this.backend, backend));
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(final String path) {
+        this.path = path;
+    }
+
+    public String getRemote() {
+        return remote;
+    }
+
+    public void setRemote(final String remote) {
+        this.remote = remote;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    public void setBranch(final String branch) {
+        this.branch = branch;
+    }
+
+    public String getCron() {
+        return cron;
+    }
+
+    public void setCron(final String cron) {
+        this.cron = cron;
+    }
+
+    public List<String> getMirrors() {
+        return mirrors;
+    }
+
+    public void setMirrors(final List<String> mirrors) {
+        this.mirrors = mirrors;
+    }
+
+    public String getBundleDirectory() {
+        return bundleDirectory;
+    }
+
+    public void setBundleDirectory(final String bundleDirectory) {
+        this.bundleDirectory = bundleDirectory;
+    }
+
+    public String getBackend() {
+        return backend;
+    }
+
+    public void setBackend(final String backend) {
+        this.backend = backend;
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(this)
+                .add("path", path)
+                .add("remote", remote)
+                .add("branch", branch)
+                .add("cron", cron)
+                .add("mirrors", mirrors)
+                .add("bundleDirectory", bundleDirectory)
+                .add("backend", backend)
+                .toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.String.format;
+
+/**
+ * Decides when a repository needs maintenance and performs it with the JGit {@link GC}: references are packed, all
+ * reachable objects are repacked into a single pack with a reachability bitmap, and unreachable loose objects older
+ * than two weeks are pruned.
+ * <p>
+ * Maintenance is due once there are too many loose objects or pack files, or once the last maintenance is too long
+ * ago. The time of the last maintenance is kept as the modification time of .git/autopush-maintenance, so that it
+ * survives restarts; repositories without it are considered freshly maintained. To stay within its CPU budget,
+ * maintenance uses a single thread for the delta search and waits after each run until the duration of the run makes
+ * up no more than the budget of the time passed since.
+ *
+ * @author Alexander Erben
+ */
+public class RepositoryMaintenance {
+
+    private static Logger LOG = Logger.getLogger(RepositoryMaintenance.class.getCanonicalName());
+
+    private static final String MARKER = "autopush-maintenance";
+
+    private final FileRepository repository;
+
+    private final File marker;
+
+    private final long maxLooseObjects;
+
+    private final long maxPackFiles;
+
+    private final long maxAge;
+
+    private final double cpuBudget;
+
+    /**
+     * Earliest time of the next maintenance allowed by the CPU budget
+     */
+    private long notBefore;
+
+    /**
+     * @param repository      the repository to maintain
+     * @param maxLooseObjects maintenance is due once there are more loose objects
+     * @param maxPackFiles    maintenance is due once there are more pack files
+     * @param maxAge          milliseconds after which maintenance is due anyway
+     * @param cpuBudget       share of one CPU that maintenance may use on average, greater than 0 and at most 1
+     */
+    public RepositoryMaintenance(final Repository repository, final long maxLooseObjects, final long maxPackFiles,
+                                 final long maxAge, final double cpuBudget) {
+        checkState(repository instanceof FileRepository, "Only repositories on the file system can be maintained");
+        checkArgument(cpuBudget > 0 && cpuBudget <= 1, "CPU budget must be in (0, 1]! Was: " + cpuBudget);
+        this.repository = (FileRepository) repository;
+        this.marker = new File(repository.getDirectory(), MARKER);
+        this.maxLooseObjects = maxLooseObjects;
+        this.maxPackFiles = maxPackFiles;
+        this.maxAge = maxAge;
+        this.cpuBudget = cpuBudget;
+    }
+
+    /**
+     * @return {@code true} if a threshold has been exceeded and the CPU budget allows to run now
+     * @throws IOException
+     */
+    public boolean isDue() throws IOException {
+        if (System.currentTimeMillis() < this.notBefore) {
+            return false;
+        }
+        if (this.marker.createNewFile()) {
+            LOG.info(format("No maintenance recorded for %s, starting to count its age now.",
+                    this.repository.getDirectory()));
+        }
+        final GC.RepoStatistics statistics = new GC(this.repository).getStatistics();
+        return statistics.numberOfLooseObjects > this.maxLooseObjects
+                || statistics.numberOfPackFiles > this.maxPackFiles
+                || System.currentTimeMillis() - this.marker.lastModified() > this.maxAge;
+    }
+
+    /**
+     * Perform the maintenance and record its time.
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        final long start = System.currentTimeMillis();
+        final GC gc = new GC(this.repository);
+        final PackConfig packConfig = new PackConfig(this.repository);
+        packConfig.setThreads(1);
+        packConfig.setBuildBitmaps(true);
+        gc.setPackConfig(packConfig);
+        try {
+            gc.gc();
+        } catch (final ParseException e) {
+            throw new IOException("Invalid gc.pruneexpire", e);
+        } finally {
+            final long end = System.currentTimeMillis();
+            this.notBefore = end + (long) ((end - start) * (1 / this.cpuBudget - 1));
+        }
+        if (!this.marker.createNewFile() && !this.marker.setLastModified(System.currentTimeMillis())) {
+            LOG.warning(format("Could not record the time of the maintenance in %s", this.marker));
+        }
+        LOG.info(format("Maintenance took %d ms: %s", System.currentTimeMillis() - start,
+                new GC(this.repository).getStatistics()));
+    }
+}
@@ -0,0 +1,216 @@
+package com.cathive.git.autopush;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The meters of a single repository, all tagged with the path of the repository:
+ * <ul>
+ * <li>autopush.run: duration of complete runs</li>
+ * <li>autopush.phase: duration of the fetch, scan, stage, commit and push phases, tagged by phase</li>
+ * <li>autopush.failures: failed phases, tagged by phase</li>
+ * <li>autopush.files.scanned: files visited by scans of the working copy</li>
+ * <li>autopush.files.staged: files written to or removed from the index</li>
+ * <li>autopush.objects.pushed: objects sent to the remote repository</li>
+ * <li>autopush.commits.unpushed: commits of the current branch that have not been pushed yet, tagged by target</li>
+ * <li>autopush.push.lag: seconds since the oldest commit that has not been pushed yet, tagged by target</li>
+ * </ul>
+ *
+ * @author Alexander Erben
+ */
+public class RepositoryMetrics {
+
+    private final MeterRegistry registry;
+
+    private final String repository;
+
+    private final Timer runs;
+
+    private final Counter filesScanned;
+
+    private final Counter filesStaged;
+
+    private final Counter objectsPushed;
+
+    private final Map<String, Timer> phases = new ConcurrentHashMap<>();
+
+    private final Map<String, Counter> failures = new ConcurrentHashMap<>();
+
+    private final Map<String, Lag> lags = new ConcurrentHashMap<>();
+
+    /**
+     * Create metrics that are not published anywhere.
+     */
+    public RepositoryMetrics(final String repository) {
+        this(new CompositeMeterRegistry(), repository);
+    }
+
+    public RepositoryMetrics(final MeterRegistry registry, final String repository) {
+        this.registry = registry;
+        this.repository = repository;
+        this.runs = Timer.builder("autopush.run")
+                .description("Duration of autopush runs")
+                .tag("repository", repository)
+                .register(registry);
+        this.filesScanned = Counter.builder("autopush.files.scanned")
+                .description("Files visited by scans of the working copy")
+                .tag("repository", repository)
+                .register(registry);
+        this.filesStaged = Counter.builder("autopush.files.staged")
+                .description("Files written to or removed from the index")
+                .tag("repository", repository)
+                .register(registry);
+        this.objectsPushed = Counter.builder("autopush.objects.pushed")
+                .description("Objects sent to the remote repository")
+                .tag("repository", repository)
+                .register(registry);
+    }
+
+    /**
+     * Record the duration of a complete run.
+     */
+    public void recordRun(final long startNanos) {
+        this.runs.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Perform a phase of a run and record its duration. If it fails, the failure is counted for the phase.
+     * @param phase  name of the phase
+     * @param action the work of the phase
+     * @return the result of the action
+     */
+    public <T> T recordPhase(final String phase, final PhaseAction<T> action) throws GitAPIException, IOException {
+        final long start = System.nanoTime();
+        try {
+            return action.run();
+        } catch (final GitAPIException | IOException | RuntimeException e) {
+            this.failures.computeIfAbsent(phase, (name) -> Counter.builder("autopush.failures")
+                    .description("Failed phases of autopush runs")
+                    .tag("repository", this.repository)
+                    .tag("phase", name)
+                    .register(this.registry)).increment();
+            throw e;
+        } finally {
+            this.phases.computeIfAbsent(phase, (name) -> Timer.builder("autopush.phase")
+                    .description("Duration of the phases of autopush runs")
+                    .tag("repository", this.repository)
+                    .tag("phase", name)
+                    .register(this.registry)).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void countScanned(final long files) {
+        this.filesScanned.increment(files);
+    }
+
+    public void countStaged(final int files) {
+        this.filesStaged.increment(files);
+    }
+
+    /**
+     * Record how far a push target is behind.
+     * @param target         name of the push target
+     * @param commits        number of commits that have not been pushed to the target
+     * @param oldestUnpushed commit time in milliseconds of the oldest of these commits, or 0 if there are none
+     */
+    public void setLag(final String target, final long commits, final long oldestUnpushed) {
+        final Lag lag = this.lags.computeIfAbsent(target, (name) -> {
+            final Lag created = new Lag();
+            Gauge.builder("autopush.commits.unpushed", created.commits, AtomicLong::get)
+                    .description("Commits of the current branch that have not been pushed yet")
+                    .tag("repository", this.repository)
+                    .tag("target", name)
+                    .register(this.registry);
+            Gauge.builder("autopush.push.lag", created.oldestUnpushed, (oldest) -> oldest.get() == 0 ? 0
+                    : Math.max(0, System.currentTimeMillis() - oldest.get()) / 1000.0)
+                    .description("Seconds since the oldest commit that has not been pushed yet")
+                    .tag("repository", this.repository)
+                    .tag("target", name)
+                    .register(this.registry);
+            return created;
+        });
+        lag.commits.set(commits);
+        lag.oldestUnpushed.set(oldestUnpushed);
+    }
+
+    /**
+     * @return a progress monitor that counts the objects written by a push command
+     */
+    public ProgressMonitor pushMonitor() {
+        return new CountingMonitor(this.objectsPushed, JGitText.get().writingObjects);
+    }
+
+    /**
+     * The work of a single phase
+     */
+    @FunctionalInterface
+    public interface PhaseAction<T> {
+
+        T run() throws GitAPIException, IOException;
+    }
+
+    /**
+     * How far a push target is behind
+     */
+    private static class Lag {
+
+        private final AtomicLong commits = new AtomicLong();
+
+        private final AtomicLong oldestUnpushed = new AtomicLong();
+    }
+
+    /**
+     * Adds the work units that JGit reports for a single task to a counter
+     */
+    private static class CountingMonitor implements ProgressMonitor {
+
+        private final Counter counter;
+
+        private final String task;
+
+        private boolean counting;
+
+        private CountingMonitor(final Counter counter, final String task) {
+            this.counter = counter;
+            this.task = task;
+        }
+
+        @Override
+        public void start(final int totalTasks) {
+        }
+
+        @Override
+        public void beginTask(final String title, final int totalWork) {
+            this.counting = this.task.equals(title);
+        }
+
+        @Override
+        public void update(final int completed) {
+            if (this.counting) {
+                this.counter.increment(completed);
+            }
+        }
+
+        @Override
+        public void endTask() {
+            this.counting = false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.cathive.git.autopush;
+
+import com.google.common.base.Throwables;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.eclipse.jgit.lib.Constants.DOT_GIT;
+
+/**
+ * Watches the working copies of all registered repositories for filesystem events. Every directory below the
+ * repository root except the .git directory is registered with a single {@link WatchService}. Every changed path is
+ * reported to the {@link RepositoryWorker} of its repository, so that idle repositories never have to scan their
+ * working copy and busy ones only scan the changed paths.
+ *
+ * @author Alexander Erben
+ */
+@Component
+public class RepositoryWatcher {
+
+    private static Logger LOG = Logger.getLogger(RepositoryWatcher.class.getCanonicalName());
+
+    /**
+     * Enables the watch mode. Defaults to false, thus every scheduled run scans the working copy.
+     */
+    @Value("${watch.enabled}")
+    private boolean enabled;
+
+    /**
+     * The worker and directory of each registered watch key
+     */
+    private final Map<WatchKey, Registration> registrations = new ConcurrentHashMap<>();
+
+    private WatchService watchService;
+
+    private Thread watchThread;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Register the working copy of the given worker recursively and switch the worker to watch mode.
+     * @throws IOException
+     */
+    public synchronized void register(final RepositoryWorker worker) throws IOException {
+        if (this.watchService == null) {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            this.watchThread = new Thread(this::processEvents, "autopush-watcher");
+            this.watchThread.setDaemon(true);
+            this.watchThread.start();
+        }
+        final Path root = Paths.get(worker.getDefinition().getPath()).toAbsolutePath();
+        registerRecursively(worker, root, root);
+        worker.enableWatchMode();
+        LOG.info(format("[%s] Watching working copy for changes.", worker.getDefinition().getPath()));
+    }
+
+    @PreDestroy
+    public synchronized void close() throws IOException {
+        if (this.watchService != null) {
+            this.watchService.close();
+        }
+    }
+
+    private void registerRecursively(final RepositoryWorker worker, final Path root, final Path start)
+            throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+                    throws IOException {
+                if (dir.getParent() != null && dir.getParent().equals(root)
+                        && DOT_GIT.equals(dir.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                final WatchKey key = dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                registrations.put(key, new Registration(worker, root, dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                // the file vanished or is not readable, its parent directory is watched anyway
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Loop of the watch thread. Reports the changed paths of every signalled key to its worker and registers
+     * directories that have been created in the meantime.
+     */
+    private void processEvents() {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = this.watchService.take();
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            final Registration registration = this.registrations.get(key);
+            if (registration == null) {
+                key.cancel();
+                continue;
+            }
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    registration.worker.markAllDirty();
+                    continue;
+                }
+                final Path changed = registration.directory.resolve((Path) event.context());
+                if (registration.directory.equals(registration.root)
+                        && DOT_GIT.equals(changed.getFileName().toString())) {
+                    continue;
+                }
+                registration.worker.markDirty(
+                        registration.root.relativize(changed).toString().replace(File.separatorChar, '/'));
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(changed, NOFOLLOW_LINKS)) {
+                    try {
+                        registerRecursively(registration.worker, registration.root, changed);
+                    } catch (final IOException e) {
+                        LOG.warning(Throwables.getStackTraceAsString(e));
+                    }
+                }
+            }
+            if (!key.reset()) {
+                this.registrations.remove(key);
+            }
+        }
+    }
+
+    /**
+     * A directory registered with the watch service
+     */
+    private static class Registration {
+
+        private final RepositoryWorker worker;
+
+        private final Path root;
+
+        private final Path directory;
+
+        private Registration(final RepositoryWorker worker, final Path root, final Path directory) {
+            this.worker = worker;
+            this.root = root;
+            this.directory = directory;
+        }
+    }
+}
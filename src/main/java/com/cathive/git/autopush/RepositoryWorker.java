@@ -0,0 +1,736 @@
+package com.cathive.git.autopush;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.CommitTimeRevFilter;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Strings.isNullOrEmpty;
+import static java.lang.String.format;
+import static java.nio.file.Files.exists;
+import static java.nio.file.Files.isDirectory;
+import static org.eclipse.jgit.api.ListBranchCommand.ListMode.REMOTE;
+import static org.eclipse.jgit.lib.Constants.HEAD;
+
+/**
+ * Performs the autopush of a single repository. Each configured {@link RepositoryDefinition} is handled by one
+ * worker, while all workers share the scheduler of the {@link Autopush} application.
+ * The phases of a run are package-private, so that the benchmarks can measure them one by one.
+ *
+ * @author Alexander Erben
+ */
+public class RepositoryWorker {
+
+    private static Logger LOG = Logger.getLogger(RepositoryWorker.class.getCanonicalName());
+
+    /**
+     * Milliseconds a commit may be older than its parent, as the clocks of committers may differ
+     */
+    private static final long ANCESTOR_CLOCK_SKEW = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Most commits counted as the lag of a push target, so that a target without tracking ref does not cost a walk
+     * of the whole history
+     */
+    private static final int MAX_LAG_COMMITS = 10000;
+
+    private static final String COMMIT_MESSAGE = "Commit by autopush";
+
+    private static final String AUTHOR_NAME = "autopush";
+
+    private static final String AUTHOR_EMAIL = "autopush@github.com";
+
+    /**
+     * The definition of the repository handled by this worker, with all defaults applied.
+     */
+    private final RepositoryDefinition definition;
+
+    /**
+     * Reference to the git repository to autopush
+     */
+    private Git repository;
+
+    /**
+     * Performs the git operations of a run
+     */
+    private GitBackend backend;
+
+    /**
+     * Set if the working copy is watched by the {@link RepositoryWatcher}. Only dirty paths are scanned then.
+     */
+    private volatile boolean watchMode;
+
+    /**
+     * Paths reported by the {@link RepositoryWatcher} since the last scan of the working copy.
+     * Initially the whole working copy is dirty, as changes may have happened while autopush was not running.
+     */
+    private final DirtyPaths dirtyPaths = new DirtyPaths();
+
+    /**
+     * Milliseconds after which the access to the remote repository is validated by a fetch, even if there is nothing
+     * to push. If 0, every run starts with a fetch.
+     */
+    private long remoteValidationInterval;
+
+    /**
+     * Time of the last successful fetch or push
+     */
+    private volatile long lastRemoteContact;
+
+    /**
+     * Coalesces bursts of filesystem events into a single run. Only present in watch mode.
+     */
+    private Debouncer debouncer;
+
+    /**
+     * Retries fetches and pushes that failed to reach the remote repository
+     */
+    private RetryPolicy retryPolicy = RetryPolicy.NONE;
+
+    /**
+     * The targets every commit is pushed to. If the repository has a remote repository, it is the first one, which is
+     * also fetched from.
+     */
+    private List<PushTarget> pushTargets;
+
+    /**
+     * Pushes to all targets at once. If absent, targets are pushed to one after the other.
+     */
+    private ExecutorService pushExecutor;
+
+    /**
+     * The version the index is written in, or 0 to keep the version it was read in
+     */
+    private int indexVersion;
+
+    /**
+     * If set, the index is written as a split index
+     */
+    private boolean splitIndex;
+
+    /**
+     * If set, the index is edited in place by an {@link IndexFileRepository}, whatever its format
+     */
+    private boolean editIndex;
+
+    /**
+     * Decides when the repository needs maintenance and performs it. If absent, no maintenance is performed.
+     */
+    private RepositoryMaintenance maintenance;
+
+    /**
+     * Set while a run or maintenance is in progress
+     */
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    /**
+     * Set if a run has been triggered that has not started yet
+     */
+    private final AtomicBoolean runRequested = new AtomicBoolean();
+
+    /**
+     * Timers and counters of the runs of this worker
+     */
+    private final RepositoryMetrics metrics;
+
+    /**
+     * The last check whether the tracking ref of a push target is an ancestor of HEAD, by tracking ref
+     */
+    private final Map<String, Ancestry> ancestry = new HashMap<>();
+
+    /**
+     * HEAD and the tracking ref at the last update of the lag of a push target, by target name
+     */
+    private final Map<String, LagPosition> lagPositions = new HashMap<>();
+
+    public RepositoryWorker(final RepositoryDefinition definition) {
+        this(definition, new RepositoryMetrics(definition.getPath()));
+    }
+
+    public RepositoryWorker(final RepositoryDefinition definition, final RepositoryMetrics metrics) {
+        this.definition = definition;
+        this.metrics = metrics;
+    }
+
+    public RepositoryDefinition getDefinition() {
+        return definition;
+    }
+
+    /**
+     * Setup the {@link org.eclipse.jgit.api.Git}-repository. Its index is read and written by JGit, unless index
+     * version 4 or a split index is configured or found, which only an {@link IndexFileRepository} understands, or
+     * the index is to be edited in place, see {@link #editIndexInPlace()}.
+     * Preconditions: the configured path points to an existing directory containing a non-bare
+     * git repository. Unless the configured remote name is empty, a remote repository by that name must exist and
+     * a remote tracking branch by the configured branch name must exist.
+     * @throws IOException
+     * @throws GitAPIException
+     */
+    public void setupRepository() throws IOException, GitAPIException {
+        final Path path = Paths.get(this.definition.getPath());
+        checkArgument(exists(path) && isDirectory(path),
+                "Directory to push must exist! Was: " + this.definition.getPath());
+        final FileRepositoryBuilder builder = new FileRepositoryBuilder()
+                .setWorkTree(path.toFile())
+                .setMustExist(true)
+                .setup();
+        final MappedIndex index = MappedIndex.open(builder.getIndexFile());
+        final boolean unknownToJGit = this.indexVersion == 4 || this.splitIndex
+                || index.getVersion() == 4 || index.isSplit();
+        if (unknownToJGit || this.editIndex) {
+            if (!unknownToJGit) {
+                LOG.info(format("[%s] Index is edited in place, reading and writing it without JGit.",
+                        this.definition.getPath()));
+            }
+            final IndexFileRepository repository = new IndexFileRepository(builder);
+            repository.setIndexFormat(this.indexVersion, this.splitIndex);
+            this.repository = Git.wrap(repository);
+        } else {
+            this.repository = Git.wrap(builder.build());
+        }
+        if (!hasRemote()) {
+            this.pushTargets = Collections.emptyList();
+            return;
+        }
+        this.pushTargets = Collections.singletonList(new RemotePushTarget(this.definition.getRemote(),
+                this.definition.getBranch(), 0, CircuitBreaker.DISABLED));
+        checkState(this.repository
+                        .branchList()
+                        .setListMode(REMOTE)
+                        .call().stream()
+                        .anyMatch((ref) -> ref.getName().contains(
+                                this.definition.getRemote() + "/" + this.definition.getBranch())),
+                format("Repository %s does not contain a remote \"%s\" with branch \"%s\"",
+                        this.definition.getPath(), this.definition.getRemote(), this.definition.getBranch()));
+    }
+
+    /**
+     * Write the index in the given format. Must be called before {@link #setupRepository()}.
+     * @param version the index version, 2, 3 or 4, or 0 to keep the version of the existing index
+     * @param split   set to split the index into a shared index and the changes since, see {@link IndexFile}
+     */
+    public void setIndexFormat(final int version, final boolean split) {
+        checkArgument(version == 0 || (version >= 2 && version <= 4), "Unsupported index version: " + version);
+        this.indexVersion = version;
+        this.splitIndex = split;
+    }
+
+    /**
+     * Read and write the index as an {@link IndexFile} even if JGit understands its format, so that changes are
+     * applied to it without rewriting it, see {@link ChangeSetStager#apply(ChangeSetStager.Staged)}. Must be called
+     * before {@link #setupRepository()}.
+     */
+    public void editIndexInPlace() {
+        this.editIndex = true;
+    }
+
+    /**
+     * Only scan the working copy if it has been marked dirty by the {@link RepositoryWatcher}.
+     */
+    public void enableWatchMode() {
+        this.watchMode = true;
+    }
+
+    /**
+     * Defer the fetch at the start of every run: the remote repository is only contacted if there are changes to
+     * push, or if the last contact is longer ago than the given interval.
+     * @param remoteValidationInterval milliseconds between two validations of the remote repository
+     */
+    public void deferFetch(final long remoteValidationInterval) {
+        this.remoteValidationInterval = remoteValidationInterval;
+    }
+
+    /**
+     * Perform the git operations of every run with the given backend, e.g. a {@link JGitBackend} of the repository.
+     * Must be called after {@link #setupRepository()} and before the first run.
+     */
+    public void setBackend(final GitBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Maintain the repository with the given maintenance, whenever {@link #maintain()} finds it due.
+     * Must be called after {@link #setupRepository()}.
+     */
+    public void setMaintenance(final RepositoryMaintenance maintenance) {
+        this.maintenance = maintenance;
+    }
+
+    /**
+     * Retry fetches and pushes with the given policy, unless the circuit breaker of the target is open. A retry is a
+     * further run, which pushes every commit that has not been pushed yet.
+     */
+    public void setRetryPolicy(final RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * Push every commit to the given targets, which replace the configured remote repository. If there is a remote
+     * repository, the first target must be the remote repository. Must be called after {@link #setupRepository()}.
+     * @param pushTargets the targets to push to
+     * @param executor    pushes to all targets at once, or {@code null} to push to one after the other
+     */
+    public void setPushTargets(final List<PushTarget> pushTargets, final ExecutorService executor) {
+        checkArgument(!pushTargets.isEmpty(), "At least one push target is required!");
+        this.pushTargets = ImmutableList.copyOf(pushTargets);
+        this.pushExecutor = executor;
+    }
+
+    /**
+     * @return the repository of this worker, available after {@link #setupRepository()}
+     */
+    public Repository getRepository() {
+        return this.repository.getRepository();
+    }
+
+    /**
+     * Run autopush after bursts of changes reported by the {@link RepositoryWatcher}, coalesced by the given debouncer.
+     */
+    public void setDebouncer(final Debouncer debouncer) {
+        this.debouncer = debouncer;
+    }
+
+    /**
+     * Mark a path of the working copy as changed, so that the next run scans it.
+     * @param path the changed path relative to the working copy root, using "/" as separator
+     */
+    public void markDirty(final String path) {
+        this.dirtyPaths.add(path);
+        signalChange();
+    }
+
+    /**
+     * Mark the whole working copy as changed, so that the next run scans all of it.
+     */
+    public void markAllDirty() {
+        this.dirtyPaths.addEverything();
+        signalChange();
+    }
+
+    private void signalChange() {
+        if (this.debouncer != null) {
+            this.debouncer.signal();
+        }
+    }
+
+    /**
+     * Perform an autopush run. Runs of a repository never overlap: if a run is still in progress, the trigger is
+     * coalesced into a single further run that starts as soon as the current one has finished.
+     */
+    public void autopush() {
+        this.runRequested.set(true);
+        if (this.running.get()) {
+            LOG.info(format("[%s] Previous run still in progress, coalescing.", this.definition.getPath()));
+            return;
+        }
+        while (this.runRequested.get() && this.running.compareAndSet(false, true)) {
+            try {
+                this.runRequested.set(false);
+                run();
+            } finally {
+                this.running.set(false);
+            }
+        }
+    }
+
+    /**
+     * Perform maintenance if it is due. Maintenance never overlaps a run: if a run is in progress, maintenance is
+     * skipped until it is triggered again, and runs triggered during maintenance start once it has finished.
+     */
+    public void maintain() {
+        if (this.maintenance == null || !this.running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (this.maintenance.isDue()) {
+                LOG.info(format("[%s] Performing maintenance.", this.definition.getPath()));
+                this.metrics.recordPhase("maintenance", () -> {
+                    this.maintenance.run();
+                    return null;
+                });
+            }
+        } catch (final GitAPIException | IOException e) {
+            LOG.severe(Throwables.getStackTraceAsString(e));
+        } finally {
+            this.running.set(false);
+        }
+        if (this.runRequested.get()) {
+            autopush();
+        }
+    }
+
+    /**
+     * Check if the working copy of the repository contains changes.
+     * Add them to the index if present and perform a commit. Then push all commits that have not been pushed yet
+     * to every push target whose tracking ref is behind HEAD. If a target is unreachable, commits are still
+     * performed and pushed to it together by a later run.
+     */
+    private void run() {
+        if (this.debouncer != null && !this.debouncer.isSettled()) {
+            LOG.info(format("[%s] Changes are still being written, deferring run.", this.definition.getPath()));
+            return;
+        }
+        checkState(this.backend != null, "No backend set for " + this.definition.getPath());
+        final DirtyPaths changes = this.dirtyPaths.drain();
+        final long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            final PushTarget primary = primaryTarget();
+            boolean remoteReachable = true;
+            if (primary != null && (this.remoteValidationInterval == 0
+                    || System.currentTimeMillis() - this.lastRemoteContact >= this.remoteValidationInterval)) {
+                LOG.info(format("[%s] Validating access to remote repository.", this.definition.getPath()));
+                remoteReachable = tryRemote("Fetch", primary.getCircuitBreaker(), this::fetch);
+            }
+            List<PushTarget> behind = behindTargets();
+            if (this.watchMode && changes.isEmpty() && behind.isEmpty()) {
+                LOG.info(format("[%s] No changes reported by the file system.", this.definition.getPath()));
+                succeeded = true;
+                return;
+            }
+            final ChangeSet changeSet = this.watchMode && changes.isEmpty()
+                    ? ChangeSet.EMPTY : scan(this.watchMode ? changes : new DirtyPaths());
+            if (!changeSet.isEmpty()) {
+                LOG.info(format("[%s] Changes detected in repository: %s", this.definition.getPath(), changeSet));
+                stage(changeSet);
+                commit();
+                behind = behindTargets();
+            }
+            if (behind.isEmpty()) {
+                LOG.info(format("[%s] Remote repository is up to date!", this.definition.getPath()));
+            } else {
+                if (!remoteReachable && behind.contains(primary)) {
+                    LOG.info(format("[%s] Remote repository unreachable, keeping commits until the next run.",
+                            this.definition.getPath()));
+                    behind = behind.stream().filter((target) -> target != primary).collect(Collectors.toList());
+                }
+                if (pushAll(behind) && remoteReachable) {
+                    LOG.info(format("[%s] Successfully updated remote repository.", this.definition.getPath()));
+                }
+            }
+            updateLag();
+            persistBackend();
+            succeeded = true;
+        } catch (final GitAPIException | IOException e) {
+            LOG.severe(Throwables.getStackTraceAsString(e));
+            throw new RuntimeException(e);
+        } finally {
+            if (!succeeded) {
+                this.dirtyPaths.restore(changes); // scan again on the next run
+            }
+            this.metrics.recordRun(start);
+        }
+    }
+
+    /**
+     * @return the push target of the remote repository, or {@code null} if the repository has none
+     */
+    private PushTarget primaryTarget() {
+        return hasRemote() ? this.pushTargets.get(0) : null;
+    }
+
+    private boolean hasRemote() {
+        return !isNullOrEmpty(this.definition.getRemote());
+    }
+
+    /**
+     * Push to the given targets, all at once if there is a push executor. Each target is retried on its own.
+     * @return {@code true} if all pushes succeeded
+     */
+    private boolean pushAll(final List<PushTarget> targets) {
+        final List<CompletableFuture<Boolean>> pushes = new ArrayList<>();
+        for (final PushTarget target : targets) {
+            final Supplier<Boolean> push = () -> tryRemote("Push to " + target.getName(),
+                    target.getCircuitBreaker(), () -> push(target));
+            pushes.add(this.pushExecutor != null && targets.size() > 1
+                    ? CompletableFuture.supplyAsync(push, this.pushExecutor)
+                    : CompletableFuture.completedFuture(push.get()));
+        }
+        boolean succeeded = true;
+        for (final CompletableFuture<Boolean> push : pushes) {
+            succeeded &= push.join();
+        }
+        return succeeded;
+    }
+
+    /**
+     * Perform an operation that contacts a remote repository, with retries if it cannot be reached. Failures are
+     * logged, but do not abort the run.
+     * @return {@code true} if the operation succeeded
+     */
+    private boolean tryRemote(final String description, final CircuitBreaker circuitBreaker,
+                              final RetryPolicy.Operation operation) {
+        try {
+            this.retryPolicy.execute(format("[%s] %s", this.definition.getPath(), description), circuitBreaker,
+                    operation);
+            return true;
+        } catch (final GitAPIException | IOException e) {
+            LOG.warning(format("[%s] %s failed: %s", this.definition.getPath(), description, e));
+            return false;
+        }
+    }
+
+    /**
+     * Compare HEAD with the tracking ref of every push target. This detects commits that have not been pushed, e.g.
+     * because a push failed before autopush was restarted. A target whose tracking ref is not an ancestor of HEAD has
+     * commits that HEAD does not contain, so a push would be rejected; it is left alone until it has been merged.
+     * While neither HEAD nor a tracking ref moves, this costs two ref reads per target. Otherwise the commits of HEAD
+     * are walked until the tracking ref is found, but not into commits older than it, see
+     * {@link #isAncestor(RevWalk, ObjectId, ObjectId)}.
+     * @return the targets whose tracking ref is missing or an ancestor of HEAD other than HEAD itself
+     */
+    private List<PushTarget> behindTargets() throws IOException {
+        final Repository repository = this.repository.getRepository();
+        final Ref head = repository.getRef(HEAD);
+        if (head == null || head.getObjectId() == null) {
+            return Collections.emptyList();
+        }
+        final List<PushTarget> behind = new ArrayList<>();
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            for (final PushTarget target : this.pushTargets) {
+                final Ref tracking = repository.getRef(target.getTrackingRef());
+                if (tracking == null || tracking.getObjectId() == null) {
+                    behind.add(target);
+                } else if (!head.getObjectId().equals(tracking.getObjectId())) {
+                    final Ancestry last = this.ancestry.get(target.getTrackingRef());
+                    final boolean ancestor;
+                    if (last != null && last.head.equals(head.getObjectId())
+                            && last.tracking.equals(tracking.getObjectId())) {
+                        ancestor = last.ancestor;
+                    } else {
+                        ancestor = isAncestor(walk, tracking.getObjectId(), head.getObjectId());
+                        this.ancestry.put(target.getTrackingRef(),
+                                new Ancestry(head.getObjectId(), tracking.getObjectId(), ancestor));
+                        if (!ancestor) {
+                            LOG.warning(format("[%s] %s of %s is not an ancestor of HEAD, not pushing to it.",
+                                    this.definition.getPath(), tracking.getName(), target.getName()));
+                        }
+                    }
+                    if (ancestor) {
+                        behind.add(target);
+                    }
+                }
+            }
+        } finally {
+            walk.release();
+        }
+        return behind;
+    }
+
+    /**
+     * Walk the commits of the tip newest first until the given commit is found. The walk stops at commits that are
+     * more than {@link #ANCESTOR_CLOCK_SKEW} older than the commit, so that a diverged history is not walked back to
+     * its root.
+     * @return {@code true} if the commit is an ancestor of the tip
+     */
+    private static boolean isAncestor(final RevWalk walk, final ObjectId commit, final ObjectId tip)
+            throws IOException {
+        walk.reset();
+        final RevCommit ancestor = walk.parseCommit(commit);
+        walk.setRevFilter(CommitTimeRevFilter.after(ancestor.getCommitTime() * 1000L - ANCESTOR_CLOCK_SKEW));
+        walk.markStart(walk.parseCommit(tip));
+        for (RevCommit next = walk.next(); next != null; next = walk.next()) {
+            if (next.equals(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Publish how far every push target is behind: the number of commits it does not contain, and the commit time
+     * of the oldest of them. A target is skipped while neither HEAD nor its tracking ref moved. At most
+     * {@link #MAX_LAG_COMMITS} commits are counted, so the lag of a target far behind is a lower bound.
+     */
+    private void updateLag() throws IOException {
+        final Repository repository = this.repository.getRepository();
+        final ObjectId head = repository.resolve(HEAD);
+        RevWalk walk = null;
+        try {
+            for (final PushTarget target : this.pushTargets) {
+                final ObjectId tracking = repository.resolve(target.getTrackingRef());
+                final LagPosition last = this.lagPositions.get(target.getName());
+                if (last != null && last.isAt(head, tracking)) {
+                    continue;
+                }
+                long count = 0;
+                long oldest = 0;
+                if (head != null) {
+                    if (walk == null) {
+                        walk = new RevWalk(repository);
+                    } else {
+                        walk.reset();
+                    }
+                    walk.markStart(walk.parseCommit(head));
+                    if (tracking != null) {
+                        walk.markUninteresting(walk.parseCommit(tracking));
+                    }
+                    for (RevCommit commit = walk.next(); commit != null && count < MAX_LAG_COMMITS;
+                         commit = walk.next()) {
+                        count++;
+                        oldest = commit.getCommitTime() * 1000L;
+                    }
+                }
+                this.metrics.setLag(target.getName(), count, oldest);
+                this.lagPositions.put(target.getName(), new LagPosition(head, tracking));
+            }
+        } finally {
+            if (walk != null) {
+                walk.release();
+            }
+        }
+    }
+
+    /**
+     * Persist the caches of the backend. A failure only costs work in later runs, so it is not fatal.
+     */
+    private void persistBackend() {
+        try {
+            this.backend.persist();
+        } catch (final IOException e) {
+            LOG.warning(format("[%s] Could not persist the state of the backend: %s", this.definition.getPath(), e));
+        }
+    }
+
+    /**
+     * Fetch the configured branch from the remote repository, which validates that it is accessible.
+     * No other branches and no tags are fetched.
+     */
+    void fetch() throws GitAPIException, IOException {
+        this.metrics.recordPhase("fetch", () -> {
+            this.backend.fetch(this.definition.getRemote(), this.definition.getBranch());
+            return null;
+        });
+        this.lastRemoteContact = System.currentTimeMillis();
+    }
+
+    /**
+     * Write the changes found by a scan to the index
+     */
+    void stage(final ChangeSet changeSet) throws GitAPIException, IOException {
+        this.metrics.recordPhase("stage", () -> {
+            this.backend.add(changeSet);
+            return null;
+        });
+        this.metrics.countStaged(changeSet.size());
+    }
+
+    /**
+     * Perform a git commit with default author and message strings
+     */
+    void commit() throws GitAPIException, IOException {
+        this.metrics.recordPhase("commit", () -> this.backend.commit(COMMIT_MESSAGE,
+                new PersonIdent(AUTHOR_NAME, AUTHOR_EMAIL)));
+    }
+
+    /**
+     * Push the current branch to all push targets, one after the other
+     * @throws IOException if a push target rejected the update
+     */
+    void push() throws GitAPIException, IOException {
+        for (final PushTarget target : this.pushTargets) {
+            push(target);
+        }
+    }
+
+    /**
+     * Push the current branch to a push target. Afterwards, the tracking ref of the target points to the pushed
+     * commit.
+     * @throws IOException if the push target rejected the update
+     */
+    private void push(final PushTarget target) throws GitAPIException, IOException {
+        final Repository repository = this.repository.getRepository();
+        final ObjectId head = repository.resolve(HEAD);
+        this.metrics.recordPhase("push", () -> {
+            target.push(this.backend, head, this.metrics);
+            return null;
+        });
+        if (target == primaryTarget()) {
+            this.lastRemoteContact = System.currentTimeMillis();
+        }
+        final RefUpdate tracking = repository.updateRef(target.getTrackingRef());
+        tracking.setNewObjectId(head);
+        tracking.setRefLogMessage("update by push", false);
+        tracking.forceUpdate();
+    }
+
+    /**
+     * Scan the given paths of the working copy for changes. If the change set is not empty, changes happened
+     * to the working copy, making an update of the remote branch necessary.
+     * @param paths the paths to scan, which may be the whole working copy
+     * @return the changes of the paths
+     */
+    ChangeSet scan(final DirtyPaths paths) throws GitAPIException, IOException {
+        final LongAdder visited = new LongAdder();
+        final ChangeSet changeSet = this.metrics.recordPhase("scan", () -> this.backend.status(paths, visited));
+        this.metrics.countScanned(visited.sum());
+        return changeSet;
+    }
+
+    /**
+     * Whether a tracking ref was an ancestor of HEAD
+     */
+    private static class Ancestry {
+
+        private final ObjectId head;
+
+        private final ObjectId tracking;
+
+        private final boolean ancestor;
+
+        private Ancestry(final ObjectId head, final ObjectId tracking, final boolean ancestor) {
+            this.head = head.copy();
+            this.tracking = tracking.copy();
+            this.ancestor = ancestor;
+        }
+    }
+
+    /**
+     * HEAD and the tracking ref of a push target when its lag was updated, either of which may be missing
+     */
+    private static class LagPosition {
+
+        private final ObjectId head;
+
+        private final ObjectId tracking;
+
+        private LagPosition(final ObjectId head, final ObjectId tracking) {
+            this.head = head == null ? null : head.copy();
+            this.tracking = tracking == null ? null : tracking.copy();
+        }
+
+        private boolean isAt(final ObjectId head, final ObjectId tracking) {
+            return Objects.equals(this.head, head) && Objects.equals(this.tracking, tracking);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.InvalidRemoteException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+
+/**
+ * Retries operations on a remote repository that failed because the remote repository could not be reached.
+ * The policy does not wait for the retry: it schedules a retry action, e.g. the next run of a {@link RepositoryWorker},
+ * on the task scheduler, so that no scheduler or push thread is blocked in the meantime. The retry is due after a
+ * random time between 0 and an exponentially growing maximum ("full jitter"), so that many instances that lost their
+ * remote repository at the same time do not retry in lockstep. Other failures, e.g. a rejected push, are not retried.
+ *
+ * @author Alexander Erben
+ */
+public class RetryPolicy {
+
+    private static Logger LOG = Logger.getLogger(RetryPolicy.class.getCanonicalName());
+
+    /**
+     * Performs every operation exactly once
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(1, 0, 0, null, null);
+
+    private final int maxAttempts;
+
+    private final long baseDelay;
+
+    private final long maxDelay;
+
+    private final TaskScheduler scheduler;
+
+    private final Runnable retry;
+
+    /**
+     * Failed attempts of every operation since its last success, by description
+     */
+    private final Map<String, Integer> failures = new ConcurrentHashMap<>();
+
+    /**
+     * Set while the retry action is scheduled
+     */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    /**
+     * @param maxAttempts number of attempts including the first one
+     * @param baseDelay   maximum milliseconds to wait before the first retry, doubled for every further retry
+     * @param maxDelay    upper bound of the maximum milliseconds to wait before a retry
+     * @param scheduler   the scheduler executing the retry action
+     * @param retry       repeats the failed operations, e.g. by running the worker again
+     */
+    public RetryPolicy(final int maxAttempts, final long baseDelay, final long maxDelay,
+                       final TaskScheduler scheduler, final Runnable retry) {
+        checkArgument(maxAttempts > 0, "At least one attempt is required! Was: " + maxAttempts);
+        checkArgument(maxAttempts == 1 || scheduler != null && retry != null,
+                "Retries require a scheduler and a retry action!");
+        this.maxAttempts = maxAttempts;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.scheduler = scheduler;
+        this.retry = retry;
+    }
+
+    /**
+     * Perform an attempt of an operation. If it fails with an unreachable remote repository and attempts are left,
+     * the retry action is scheduled, unless it is already. Attempts are counted by the description of the operation,
+     * until the operation succeeds or the last attempt fails. Each attempt asks the circuit breaker again whether the
+     * remote repository may be contacted.
+     * @param description describes the operation in log messages
+     * @param breaker     the circuit breaker of the remote repository
+     * @param operation   the operation to perform
+     * @throws GitAPIException the failure of the attempt
+     * @throws IOException     the failure of the attempt, or an unexpected failure of the operation
+     * @throws CircuitBreaker.OpenException if the circuit breaker does not allow an attempt
+     */
+    public void execute(final String description, final CircuitBreaker breaker, final Operation operation)
+            throws GitAPIException, IOException {
+        breaker.acquire();
+        try {
+            operation.run();
+            breaker.recordSuccess();
+            this.failures.remove(description);
+        } catch (final GitAPIException | IOException e) {
+            if (!isUnreachable(e)) {
+                breaker.recordSuccess(); // the remote repository answered
+                this.failures.remove(description);
+                throw e;
+            }
+            breaker.recordFailure();
+            final int attempt = this.failures.merge(description, 1, Integer::sum);
+            if (attempt >= this.maxAttempts) {
+                this.failures.remove(description);
+                throw e;
+            }
+            final long delay = delay(attempt);
+            LOG.info(format("%s failed (attempt %d of %d), retrying in %d ms: %s",
+                    description, attempt, this.maxAttempts, delay, e.getMessage()));
+            scheduleRetry(delay);
+            throw e;
+        } catch (final RuntimeException e) {
+            breaker.recordFailure(); // leave a half-open circuit breaker open again rather than half-open forever
+            throw new IOException(format("%s failed: %s", description, e), e);
+        }
+    }
+
+    /**
+     * Schedule the retry action after the given delay, unless it is scheduled already. All operations that failed
+     * in the meantime are retried by the same execution of the action.
+     */
+    private void scheduleRetry(final long delay) {
+        if (this.scheduled.compareAndSet(false, true)) {
+            this.scheduler.schedule(() -> {
+                this.scheduled.set(false);
+                this.retry.run();
+            }, new Date(System.currentTimeMillis() + delay));
+        }
+    }
+
+    /**
+     * @return a random delay between 0 and the exponential backoff of the given attempt
+     */
+    long delay(final int attempt) {
+        final long backoff = this.baseDelay << Math.min(attempt - 1, 30);
+        final long bound = Math.min(this.maxDelay, backoff < 0 ? Long.MAX_VALUE : backoff);
+        return bound <= 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    /**
+     * @return {@code true} if the failure means that the remote repository could not be reached
+     */
+    private static boolean isUnreachable(final Exception e) {
+        return e instanceof TransportException || e instanceof InvalidRemoteException
+                || e instanceof org.eclipse.jgit.errors.TransportException;
+    }
+
+    /**
+     * An operation on a remote repository
+     */
+    @FunctionalInterface
+    public interface Operation {
+
+        void run() throws GitAPIException, IOException;
+    }
+}
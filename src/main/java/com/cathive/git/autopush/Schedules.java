@@ -0,0 +1,41 @@
+package com.cathive.git.autopush;
+
+import org.springframework.scheduling.support.CronSequenceGenerator;
+
+import java.util.Date;
+
+/**
+ * Utilities for the cron expressions of autopush schedules.
+ *
+ * @author Alexander Erben
+ */
+public final class Schedules {
+
+    /**
+     * Number of consecutive execution times that are inspected
+     */
+    private static final int SAMPLES = 10;
+
+    private Schedules() {
+    }
+
+    /**
+     * Find the shortest interval between consecutive executions of a cron expression, starting now. Expressions that
+     * fire in bursts, such as "* * *&#47;3 * * *", which fires every second during every third hour, are detected, as
+     * the executions of the first burst are consecutive.
+     * @param cron a cron expression with 6 components starting with seconds
+     * @return the shortest interval in milliseconds
+     * @throws IllegalArgumentException if the expression is invalid
+     */
+    public static long shortestInterval(final String cron) {
+        final CronSequenceGenerator generator = new CronSequenceGenerator(cron);
+        Date previous = generator.next(new Date());
+        long shortest = Long.MAX_VALUE;
+        for (int i = 0; i < SAMPLES; i++) {
+            final Date next = generator.next(previous);
+            shortest = Math.min(shortest, next.getTime() - previous.getTime());
+            previous = next;
+        }
+        return shortest;
+    }
+}
@@ -0,0 +1,327 @@
+package com.cathive.git.autopush;
+
+import com.google.common.hash.Hashing;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import static java.lang.String.format;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+
+/**
+ * Remembers the content hash of files together with their stat data, so that files whose index entries are
+ * racily clean or smudged need not be hashed again as long as their stat data is unchanged. The cache is kept in
+ * the file .git/autopush-statcache, which is memory-mapped when the repository is set up and therefore survives
+ * restarts of autopush. On Windows, the file is read into the heap instead, so that it can be replaced by a save.
+ * <p>
+ * The file starts with a header (magic, version, number of records), followed by fixed-size records sorted by the
+ * hash of their path: path hash, a second path hash verifying the first, device and inode number, size,
+ * modification time in nanoseconds and object id. A hit only tells which content a file has; whether that content
+ * is modified is still decided by comparing it to the object id of the current index entry, so the cache stays valid
+ * if the index is changed by other git processes. Files modified within {@link #RACY_MARGIN} of being recorded are
+ * never cached, as their stat data may not change on a further modification. Neither are files without device and
+ * inode number, e.g. on Windows, as a file replaced by another one of the same size and modification time could not
+ * be told apart. The file is replaced atomically, so concurrent readers never see a partially written cache.
+ *
+ * @author Alexander Erben
+ */
+public class StatCache {
+
+    private static final Logger LOG = Logger.getLogger(StatCache.class.getCanonicalName());
+
+    private static final String FILE_NAME = "autopush-statcache";
+
+    private static final int MAGIC = 0x41505343; // "APSC"
+
+    private static final int VERSION = 2;
+
+    private static final int HEADER_SIZE = 12;
+
+    private static final int RECORD_SIZE = 8 + 8 + 8 + 8 + 8 + 8 + OBJECT_ID_LENGTH;
+
+    /**
+     * Files modified less than this many nanoseconds before they are recorded are not cached
+     */
+    private static final long RACY_MARGIN = TimeUnit.SECONDS.toNanos(3);
+
+    private final Repository repository;
+
+    private final File file;
+
+    /**
+     * The records of the cache file, or an empty buffer if there is none
+     */
+    private volatile ByteBuffer records = ByteBuffer.allocate(0);
+
+    /**
+     * Records added since the cache file has been written, by path hash
+     */
+    private final Map<Long, Record> added = new ConcurrentHashMap<>();
+
+    public StatCache(final Repository repository) {
+        this.repository = repository;
+        this.file = new File(repository.getDirectory(), FILE_NAME);
+    }
+
+    /**
+     * Map the cache file into memory, see {@link MappedIndex#map(File)}. A missing or unreadable file leaves the cache
+     * empty.
+     */
+    public void load() {
+        if (!this.file.isFile()) {
+            return;
+        }
+        try {
+            final ByteBuffer mapped = MappedIndex.map(this.file);
+            if (mapped == null || mapped.capacity() < HEADER_SIZE || mapped.getInt(0) != MAGIC
+                    || mapped.getInt(4) != VERSION
+                    || mapped.capacity() != HEADER_SIZE + (long) mapped.getInt(8) * RECORD_SIZE) {
+                LOG.warning(format("Ignoring invalid stat cache %s", this.file));
+                return;
+            }
+            mapped.position(HEADER_SIZE);
+            this.records = mapped.slice();
+        } catch (final IOException e) {
+            LOG.warning(format("Ignoring unreadable stat cache %s: %s", this.file, e));
+        }
+    }
+
+    /**
+     * @param path       path of a file relative to the working copy root
+     * @param attributes current attributes of the file
+     * @return the id of the content of the file, or {@code null} if it is unknown for the current stat data
+     */
+    public ObjectId lookup(final String path, final BasicFileAttributes attributes) {
+        final long[] fileKey = fileKey(attributes);
+        if (fileKey == null) {
+            return null;
+        }
+        final long hash = hash(path);
+        final long check = check(path);
+        final Record record = this.added.get(hash);
+        if (record != null) {
+            return record.matches(check, fileKey, attributes) ? record.id : null;
+        }
+        final ByteBuffer buffer = this.records;
+        int low = 0;
+        int high = buffer.capacity() / RECORD_SIZE - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final long found = buffer.getLong(middle * RECORD_SIZE);
+            if (found < hash) {
+                low = middle + 1;
+            } else if (found > hash) {
+                high = middle - 1;
+            } else {
+                final Record stored = read(buffer, middle * RECORD_SIZE);
+                return stored.matches(check, fileKey, attributes) ? stored.id : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remember the id of the content of a file, unless it has been modified too recently or has no file key.
+     * @param path       path of a file relative to the working copy root
+     * @param attributes attributes of the file, read before its content
+     * @param id         id of the content of the file
+     */
+    public void record(final String path, final BasicFileAttributes attributes, final ObjectId id) {
+        final long modified = attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        final long[] fileKey = fileKey(attributes);
+        if (fileKey == null || modified > TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - RACY_MARGIN) {
+            return;
+        }
+        final long hash = hash(path);
+        this.added.put(hash, new Record(hash, check(path), fileKey[0], fileKey[1], attributes.size(), modified,
+                id.copy()));
+    }
+
+    /**
+     * Write the cache file if records have been added, dropping the records of paths that are no longer in the index.
+     * If the file cannot be written, the added records are dropped as well, so that they do not pile up in memory
+     * while saving keeps failing.
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        if (this.added.isEmpty()) {
+            return;
+        }
+        try {
+            write();
+        } catch (final IOException | RuntimeException e) {
+            this.added.clear();
+            throw e;
+        }
+        this.added.clear();
+        load();
+    }
+
+    private void write() throws IOException {
+        final MappedIndex index = MappedIndex.open(this.repository.getIndexFile());
+        final long[] tracked = new long[index.getEntryCount()];
+        for (int i = 0; i < tracked.length; i++) {
+            tracked[i] = hash(index.getPathString(i));
+        }
+        Arrays.sort(tracked);
+        final List<Record> sorted = new ArrayList<>(this.added.values());
+        sorted.sort((a, b) -> Long.compare(a.hash, b.hash));
+        final ByteBuffer buffer = this.records;
+        final int stored = buffer.capacity() / RECORD_SIZE;
+        final File temporary = File.createTempFile(FILE_NAME, ".tmp", this.repository.getDirectory());
+        try {
+            int count = 0;
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(0); // number of records, written once it is known
+                int next = 0;
+                int t = 0; // the records are merged with the sorted hashes of the tracked paths
+                for (int i = 0; i < stored || next < sorted.size(); ) {
+                    final Record record;
+                    if (next == sorted.size()
+                            || i < stored && buffer.getLong(i * RECORD_SIZE) < sorted.get(next).hash) {
+                        record = read(buffer, i++ * RECORD_SIZE);
+                    } else {
+                        record = sorted.get(next++);
+                        if (i < stored && buffer.getLong(i * RECORD_SIZE) == record.hash) {
+                            i++; // replaced by the added record
+                        }
+                    }
+                    while (t < tracked.length && tracked[t] < record.hash) {
+                        t++;
+                    }
+                    if (t < tracked.length && tracked[t] == record.hash) {
+                        record.write(out);
+                        count++;
+                    }
+                }
+            }
+            try (FileChannel channel = FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE)) {
+                final ByteBuffer header = ByteBuffer.allocate(4).putInt(0, count);
+                channel.write(header, 8);
+            }
+            Files.move(temporary.toPath(), this.file.toPath(), ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private static Record read(final ByteBuffer buffer, final int offset) {
+        return new Record(buffer.getLong(offset), buffer.getLong(offset + 8), buffer.getLong(offset + 16),
+                buffer.getLong(offset + 24), buffer.getLong(offset + 32), buffer.getLong(offset + 40),
+                ObjectId.fromRaw(new int[]{buffer.getInt(offset + 48), buffer.getInt(offset + 52),
+                        buffer.getInt(offset + 56), buffer.getInt(offset + 60), buffer.getInt(offset + 64)}));
+    }
+
+    /**
+     * @return the 64 bit FNV-1a hash of a path
+     */
+    static long hash(final String path) {
+        long hash = 0xcbf29ce484222325L;
+        for (final byte b : path.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * @return a second hash of a path, which tells paths apart whose {@link #hash(String)} collides
+     */
+    private static long check(final String path) {
+        return Hashing.murmur3_128().hashString(path, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * @return the device and inode number of the file, or {@code null} if the platform does not provide them
+     */
+    private static long[] fileKey(final BasicFileAttributes attributes) {
+        final Object key = attributes.fileKey();
+        if (key == null) {
+            return null;
+        }
+        final String unix = key.toString(); // "(dev=<hex>,ino=<decimal>)"
+        final int ino = unix.indexOf(",ino=");
+        if (!unix.startsWith("(dev=") || ino < 0 || !unix.endsWith(")")) {
+            return null;
+        }
+        try {
+            return new long[]{Long.parseUnsignedLong(unix.substring(5, ino), 16),
+                    Long.parseUnsignedLong(unix.substring(ino + 5, unix.length() - 1))};
+        } catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The stat data and content id of a single file
+     */
+    private static class Record {
+
+        private final long hash;
+
+        private final long check;
+
+        private final long device;
+
+        private final long inode;
+
+        private final long size;
+
+        private final long modified;
+
+        private final ObjectId id;
+
+        private Record(final long hash, final long check, final long device, final long inode, final long size,
+                       final long modified, final ObjectId id) {
+            this.hash = hash;
+            this.check = check;
+            this.device = device;
+            this.inode = inode;
+            this.size = size;
+            this.modified = modified;
+            this.id = id;
+        }
+
+        private boolean matches(final long check, final long[] fileKey, final BasicFileAttributes attributes) {
+            return this.check == check
+                    && this.device == fileKey[0]
+                    && this.inode == fileKey[1]
+                    && this.size == attributes.size()
+                    && this.modified == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        }
+
+        private void write(final DataOutputStream out) throws IOException {
+            out.writeLong(this.hash);
+            out.writeLong(this.check);
+            out.writeLong(this.device);
+            out.writeLong(this.inode);
+            out.writeLong(this.size);
+            out.writeLong(this.modified);
+            final byte[] raw = new byte[OBJECT_ID_LENGTH];
+            this.id.copyRawTo(raw, 0);
+            out.write(raw);
+        }
+    }
+}
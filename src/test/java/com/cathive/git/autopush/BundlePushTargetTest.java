@@ -0,0 +1,26 @@
+package com.cathive.git.autopush;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+/**
+ * @author Alexander Erben
+ */
+public class BundlePushTargetTest {
+
+    @Test
+    public void prefixTellsDirectoriesOfTheSameNameApart() {
+        final String first = BundlePushTarget.prefix(Paths.get("/srv/a/project"));
+        final String second = BundlePushTarget.prefix(Paths.get("/srv/b/project"));
+        assertThat(first, startsWith("project-"));
+        assertThat(second, startsWith("project-"));
+        assertThat(first, not(second));
+        assertEquals(first, BundlePushTarget.prefix(Paths.get("/srv/a/../a/project")));
+    }
+}
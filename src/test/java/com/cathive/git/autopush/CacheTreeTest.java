@@ -0,0 +1,219 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.lang.String.format;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks the trees committed with the {@link CacheTree} against the trees JGit writes for the same index.
+ *
+ * @author Alexander Erben
+ */
+public class CacheTreeTest {
+
+    private static final PersonIdent AUTHOR = new PersonIdent("Test", "test@example.com");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(42);
+
+    private final List<String> paths = new ArrayList<>();
+
+    private NativeGit git;
+
+    private Repository repository;
+
+    private JGitBackend backend;
+
+    @Before
+    public void createRepository() throws IOException {
+        assumeTrue(NativeGit.isAvailable());
+        for (int i = 0; i < 60; i++) {
+            this.paths.add(format("d%d/e%d/file-%d.txt", i % 3, i % 5, i));
+        }
+        this.git = NativeGit.init(this.folder.getRoot(), this.paths.toArray(new String[this.paths.size()]));
+        open();
+    }
+
+    @After
+    public void closeRepository() {
+        if (this.repository != null) {
+            this.repository.close();
+        }
+    }
+
+    @Test
+    public void randomEdits() throws Exception {
+        for (int run = 0; run < 20; run++) {
+            editRandomly(run);
+            commitAndVerify();
+        }
+    }
+
+    @Test
+    public void externalAdd() throws Exception {
+        editRandomly(0);
+        commitAndVerify();
+        this.git.write("d1/external.txt", "external\n");
+        this.git.write(this.paths.get(0), "changed by git\n");
+        this.git.run("add", "d1/external.txt", this.paths.get(0));
+        editRandomly(1);
+        commitAndVerify();
+        editRandomly(2);
+        stage();
+        this.git.write("d2/e4/external.txt", "external\n");
+        this.git.run("add", "d2/e4/external.txt");
+        verifyCommit();
+        assertTrue(this.git.run("ls-tree", "-r", "--name-only", "HEAD").contains("d2/e4/external.txt"));
+        editRandomly(3);
+        commitAndVerify();
+    }
+
+    @Test
+    public void restart() throws Exception {
+        editRandomly(0);
+        commitAndVerify();
+        editRandomly(1);
+        commitAndVerify();
+        this.backend.persist();
+        assertTrue(new File(this.repository.getDirectory(), "autopush-cachetree").isFile());
+        this.repository.close();
+        open();
+        editRandomly(2);
+        commitAndVerify();
+        this.backend.persist();
+        this.repository.close();
+        this.git.write("d0/e0/external.txt", "external\n");
+        this.git.run("add", "d0/e0/external.txt");
+        open();
+        editRandomly(3);
+        commitAndVerify();
+    }
+
+    @Test
+    public void mergeInProgress() throws Exception {
+        editRandomly(0);
+        commitAndVerify();
+        this.git.run("branch", "side");
+        commitOnSide("d0/side.txt");
+        editRandomly(1);
+        commitAndVerify();
+        this.git.run("merge", "-q", "--no-commit", "--no-ff", "side");
+        editRandomly(2);
+        verifyMerge();
+        this.backend.commitFromHead();
+        commitOnSide("d1/side.txt");
+        this.git.run("merge", "-q", "--no-commit", "--no-ff", "side");
+        editRandomly(3);
+        verifyMerge();
+    }
+
+    private void commitOnSide(final String path) throws IOException {
+        this.git.run("checkout", "-q", "side");
+        this.git.write(path, "side\n");
+        this.git.run("add", path);
+        this.git.run("commit", "-q", "-m", "side");
+        this.git.run("checkout", "-q", "master");
+    }
+
+    /**
+     * Commit a merge in progress with the changes of the working copy.
+     */
+    private void verifyMerge() throws Exception {
+        final ObjectId side = this.repository.resolve("side");
+        commitAndVerify();
+        final RevWalk walk = new RevWalk(this.repository);
+        try {
+            final RevCommit merge = walk.parseCommit(this.repository.resolve("HEAD"));
+            assertEquals(2, merge.getParentCount());
+            assertEquals(side, merge.getParent(1).getId());
+        } finally {
+            walk.release();
+        }
+        assertFalse(new File(this.repository.getDirectory(), "MERGE_HEAD").exists());
+    }
+
+    private void open() throws IOException {
+        this.repository = new FileRepositoryBuilder().setWorkTree(this.folder.getRoot()).setMustExist(true).setup()
+                .build();
+        this.backend = new JGitBackend(Git.wrap(this.repository));
+    }
+
+    /**
+     * Modify, add and remove a few random files.
+     */
+    private void editRandomly(final int run) throws IOException {
+        for (int i = 0; i < 1 + this.random.nextInt(5); i++) {
+            final String path = this.paths.get(this.random.nextInt(this.paths.size()));
+            if (!new File(this.folder.getRoot(), path).exists()) {
+                continue;
+            }
+            if (this.random.nextInt(4) == 0) {
+                this.git.delete(path);
+            } else {
+                this.git.write(path, format("run %d%n", run));
+            }
+        }
+        final String added = format("d%d/new-%d/file.txt", this.random.nextInt(3), run);
+        this.git.write(added, added);
+        this.paths.add(added);
+    }
+
+    private void stage() throws Exception {
+        this.backend.add(this.backend.status(new DirtyPaths(), new LongAdder()));
+    }
+
+    /**
+     * Stage and commit the changes, and check the committed tree against the tree JGit writes for the index.
+     */
+    private void commitAndVerify() throws Exception {
+        stage();
+        verifyCommit();
+    }
+
+    /**
+     * Commit the index, and check the committed tree against the tree JGit writes for it.
+     */
+    private void verifyCommit() throws Exception {
+        final ObjectId commit = this.backend.commit("autopush", AUTHOR);
+        final ObjectId expected;
+        final ObjectInserter inserter = this.repository.newObjectInserter();
+        try {
+            expected = this.repository.readDirCache().writeTree(inserter);
+            inserter.flush();
+        } finally {
+            inserter.release();
+        }
+        final RevWalk walk = new RevWalk(this.repository);
+        try {
+            assertEquals(expected, walk.parseCommit(commit).getTree().getId());
+        } finally {
+            walk.release();
+        }
+        assertEquals("", this.git.run("status", "--porcelain"));
+    }
+}
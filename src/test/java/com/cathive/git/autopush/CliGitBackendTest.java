@@ -0,0 +1,76 @@
+package com.cathive.git.autopush;
+
+import com.google.common.collect.ImmutableSet;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Alexander Erben
+ */
+public class CliGitBackendTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private NativeGit git;
+
+    private Repository repository;
+
+    private CliGitBackend backend;
+
+    @Before
+    public void createRepository() throws IOException {
+        assumeTrue(NativeGit.isAvailable());
+        this.git = NativeGit.init(this.folder.getRoot(), "a.txt");
+        this.repository = new FileRepositoryBuilder().setWorkTree(this.folder.getRoot()).setMustExist(true).setup()
+                .build();
+        this.backend = new CliGitBackend(this.repository, "git");
+    }
+
+    @After
+    public void closeRepository() {
+        if (this.repository != null) {
+            this.repository.close();
+        }
+    }
+
+    @Test
+    public void expandsUntrackedDirectories() throws IOException {
+        this.git.write(".gitignore", "*.log\n");
+        this.git.run("add", ".gitignore");
+        this.git.run("commit", "-q", "-m", "ignore");
+        this.git.write("new/deep/b.txt", "b\n");
+        this.git.write("new/c.txt", "c\n");
+        this.git.write("new/deep/ignored.log", "ignored\n");
+        this.git.write("d.txt", "d\n");
+        assertEquals(ImmutableSet.of("new/deep/b.txt", "new/c.txt", "d.txt"),
+                this.backend.status(new DirtyPaths(), new LongAdder()).getUntracked());
+    }
+
+    @Test
+    public void scansEverythingIfDirtyPathsAreTooLong() throws IOException {
+        final StringBuilder deep = new StringBuilder();
+        while (deep.length() < 2100) { // a thousand of them exceed the command line limit
+            deep.append("directory/");
+        }
+        final DirtyPaths dirty = new DirtyPaths();
+        dirty.drain();
+        for (int i = 0; i < 1000; i++) {
+            dirty.add(deep + "file-" + i + ".txt");
+        }
+        this.git.write("a.txt", "modified\n");
+        dirty.add("a.txt");
+        assertEquals(ImmutableSet.of("a.txt"), this.backend.status(dirty, new LongAdder()).getModified());
+    }
+}
@@ -0,0 +1,160 @@
+package com.cathive.git.autopush;
+
+import com.google.common.collect.ImmutableSet;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.String.format;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Round trips of indexes written by git through {@link IndexFile}: every index is read and edited by autopush, then
+ * checked by git itself.
+ *
+ * @author Alexander Erben
+ */
+public class IndexFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private NativeGit git;
+
+    @Before
+    public void createRepository() throws IOException {
+        assumeTrue(NativeGit.isAvailable());
+        final List<String> paths = new ArrayList<>();
+        paths.add("a.txt");
+        paths.add("dir/b.txt");
+        paths.add("dir/sub/c.txt");
+        for (int i = 0; i < 40; i++) {
+            paths.add(format("many/file-%02d.txt", i));
+        }
+        this.git = NativeGit.init(this.folder.getRoot(), paths.toArray(new String[paths.size()]));
+    }
+
+    @Test
+    public void version2() throws IOException {
+        this.git.run("update-index", "--index-version", "2");
+        roundTrip(0, false);
+        assertEquals(2, this.git.indexVersion());
+    }
+
+    @Test
+    public void version3() throws IOException {
+        this.git.run("update-index", "--index-version", "3");
+        this.git.run("update-index", "--skip-worktree", "many/file-07.txt");
+        assertEquals(3, this.git.indexVersion());
+        roundTrip(0, false);
+        assertEquals(3, this.git.indexVersion());
+        assertThat(this.git.run("ls-files", "-v", "many/file-07.txt"), containsString("S many/file-07.txt"));
+    }
+
+    @Test
+    public void version4() throws IOException {
+        this.git.run("update-index", "--index-version", "4");
+        roundTrip(0, false);
+        assertEquals(4, this.git.indexVersion());
+    }
+
+    @Test
+    public void splitIndex() throws IOException {
+        this.git.run("update-index", "--split-index");
+        this.git.write("dir/b.txt", "replaced\n");
+        this.git.write("extra.txt", "added\n");
+        this.git.run("add", "dir/b.txt", "extra.txt");
+        this.git.run("rm", "-q", "many/file-11.txt");
+        this.git.run("commit", "-q", "-m", "split");
+        assertTrue(MappedIndex.open(this.git.getIndexFile()).isSplit());
+        roundTrip(0, false);
+        assertTrue(MappedIndex.open(this.git.getIndexFile()).isSplit());
+    }
+
+    @Test
+    public void writeVersion4() throws IOException {
+        roundTrip(4, false);
+        assertEquals(4, this.git.indexVersion());
+    }
+
+    @Test
+    public void writeSplitIndex() throws IOException {
+        roundTrip(0, true);
+        assertTrue(MappedIndex.open(this.git.getIndexFile()).isSplit());
+    }
+
+    @Test
+    public void workerKeepsJGitIndexByDefault() throws Exception {
+        assertThat(setupWorker(0, false).getRepository(), not(instanceOf(IndexFileRepository.class)));
+        assertThat(setupWorker(3, false).getRepository(), not(instanceOf(IndexFileRepository.class)));
+        assertThat(setupWorker(4, false).getRepository(), instanceOf(IndexFileRepository.class));
+        assertThat(setupWorker(0, true).getRepository(), instanceOf(IndexFileRepository.class));
+        this.git.run("update-index", "--index-version", "4");
+        assertThat(setupWorker(0, false).getRepository(), instanceOf(IndexFileRepository.class));
+    }
+
+    private RepositoryWorker setupWorker(final int version, final boolean split) throws Exception {
+        final RepositoryWorker worker = new RepositoryWorker(
+                new RepositoryDefinition(this.folder.getRoot().getPath(), "", "master", "0 0 0 * * *"));
+        worker.setIndexFormat(version, split);
+        worker.setupRepository();
+        return worker;
+    }
+
+    /**
+     * Check that the index git wrote is read as git reads it, stage a modified, an added and a removed file into it,
+     * and check the result with git.
+     */
+    private void roundTrip(final int version, final boolean split) throws IOException {
+        final IndexFileRepository repository = new IndexFileRepository(new FileRepositoryBuilder()
+                .setWorkTree(this.folder.getRoot())
+                .setMustExist(true)
+                .setup());
+        repository.setIndexFormat(version, split);
+        try {
+            assertEquals(this.git.run("ls-files", "-s"), listFiles(repository));
+            this.git.write("a.txt", "modified\n");
+            this.git.write("dir/new.txt", "new\n");
+            this.git.delete("dir/sub/c.txt");
+            new ChangeSetStager(repository, new StatCache(repository), new CacheTree(repository)).stage(
+                    new ChangeSet(ImmutableSet.of("dir/new.txt"), ImmutableSet.of("a.txt"),
+                            ImmutableSet.of("dir/sub/c.txt"), ImmutableSet.of()));
+            assertEquals("M  a.txt\nA  dir/new.txt\nD  dir/sub/c.txt\n", this.git.run("status", "--porcelain"));
+            assertThat(this.git.run("ls-files", "--debug"), containsString("dir/new.txt"));
+            assertFalse(this.git.run("ls-files", "--debug").contains("dir/sub/c.txt"));
+            assertEquals(this.git.run("ls-files", "-s"), listFiles(repository));
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * @return the index of the repository in the format of {@code git ls-files -s}
+     */
+    private static String listFiles(final Repository repository) throws IOException {
+        final DirCache index = repository.readDirCache();
+        final StringBuilder files = new StringBuilder();
+        for (int i = 0; i < index.getEntryCount(); i++) {
+            final DirCacheEntry entry = index.getEntry(i);
+            files.append(format("%06o %s %d\t%s%n", entry.getRawMode(), entry.getObjectId().name(), entry.getStage(),
+                    entry.getPathString()));
+        }
+        return files.toString();
+    }
+}
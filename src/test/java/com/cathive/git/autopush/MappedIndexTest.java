@@ -0,0 +1,219 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.util.SystemReader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.String.format;
+import static org.eclipse.jgit.lib.Constants.newMessageDigest;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Reads indexes written by git through a {@link MappedIndex} and compares them with what git lists.
+ *
+ * @author Alexander Erben
+ */
+public class MappedIndexTest {
+
+    /**
+     * The modification time of all files, long before the index is written
+     */
+    private static final long MTIME = 1500000000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> paths = new ArrayList<>();
+
+    private NativeGit git;
+
+    @Before
+    public void createRepository() throws IOException {
+        assumeTrue(NativeGit.isAvailable());
+        // long common prefixes, so that version 4 strips most of every path
+        for (int i = 0; i < 50; i++) {
+            this.paths.add(format("src/main/java/com/example/package%d/Class%02d.java", i / 20, i));
+        }
+        this.paths.add("z.txt");
+        this.git = NativeGit.init(this.folder.getRoot(), this.paths.toArray(new String[this.paths.size()]));
+        for (final String path : this.paths) {
+            setModified(path, MTIME);
+        }
+        this.git.run("update-index", "--refresh");
+    }
+
+    @Test
+    public void version4AcrossRestarts() throws IOException {
+        this.git.run("update-index", "--index-version", "4");
+        final MappedIndex index = MappedIndex.open(this.git.getIndexFile());
+        assertEquals(4, index.getVersion());
+        assertEntries(index);
+        assertEquals(-1, index.findEntry("a.txt"));
+        assertEquals(-(this.paths.size() + 1), index.findEntry("zz.txt"));
+        // the restart paths are kept every 16 entries, so look up entries right before and after them in any order
+        for (final int position : new int[] {33, 15, 16, 17, 47, 0, 31, 32, 48, 50}) {
+            assertEquals(this.paths.get(position), index.getPathString(position));
+        }
+    }
+
+    @Test
+    public void copyVersion4AcrossRestarts() throws IOException {
+        this.git.run("update-index", "--index-version", "4");
+        final byte[] file = Files.readAllBytes(this.git.getIndexFile().toPath());
+        final MappedIndex index = MappedIndex.open(this.git.getIndexFile());
+        final byte[] all = copy(index, 0, index.getEntryCount());
+        assertArrayEquals(Arrays.copyOfRange(file, 12, 12 + all.length), all);
+        // a copy starting in the middle of an interval compresses its first path against the given previous one
+        final ByteArrayOutputStream pieces = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(pieces);
+        byte[] previous = new byte[0];
+        for (final int[] range : new int[][] {{0, 7}, {7, 16}, {16, 17}, {17, 40}, {40, index.getEntryCount()}}) {
+            previous = index.copyEntries(out, range[0], range[1], previous, 0);
+            assertArrayEquals(index.getPath(range[1] - 1), previous);
+        }
+        assertArrayEquals(all, pieces.toByteArray());
+    }
+
+    @Test
+    public void splitIndex() throws IOException {
+        splitAndChange();
+        final MappedIndex index = MappedIndex.open(this.git.getIndexFile());
+        assertTrue(index.isSplit());
+        assertEquals(1, index.getDeleted().cardinality());
+        assertEquals(1, index.getReplaced().cardinality());
+        assertEquals(1, index.getAdded().size());
+        assertEquals("src/main/java/com/example/package0/Added.java", index.getAdded().get(0).getPathString());
+        assertEntries(index);
+        assertTrue(index.findEntry("src/main/java/com/example/package1/Class25.java") < 0);
+    }
+
+    @Test
+    public void splitIndexOfVersion4() throws IOException {
+        this.git.run("update-index", "--index-version", "4");
+        splitAndChange();
+        final MappedIndex index = MappedIndex.open(this.git.getIndexFile());
+        assertTrue(index.isSplit());
+        assertEquals(4, index.getVersion());
+        assertEntries(index);
+    }
+
+    @Test
+    public void copiedEntriesModifiedInTheSameSecondAreSmudged() throws IOException {
+        for (final String version : new String[] {"2", "4"}) {
+            setModified(this.paths.get(0), MTIME + 100);
+            setModified(this.paths.get(16), MTIME + 100);
+            setModified(this.paths.get(17), MTIME + 100);
+            this.git.run("update-index", "--refresh", "--index-version", version);
+            final MappedIndex index = MappedIndex.open(this.git.getIndexFile());
+            final File copied = new File(this.folder.getRoot(), ".git/copied-index");
+            writeIndex(copied, index.getVersion(), index.getEntryCount(),
+                    copy(index, 0, index.getEntryCount(), (int) (MTIME + 100)));
+            final MappedIndex copy = MappedIndex.open(copied);
+            assertEntries(copy);
+            for (int i = 0; i < copy.getEntryCount(); i++) {
+                final DirCacheEntry entry = copy.getEntry(i);
+                final boolean racy = i == 0 || i == 16 || i == 17;
+                assertTrue(index.getEntry(i).getLength() > 0);
+                assertEquals(entry.getPathString(), racy ? 0 : index.getEntry(i).getLength(), entry.getLength());
+                assertEquals(index.getEntry(i).getLastModified(), entry.getLastModified());
+                assertEquals(index.getEntry(i).getObjectId(), entry.getObjectId());
+            }
+            setModified(this.paths.get(0), MTIME);
+            setModified(this.paths.get(16), MTIME);
+            setModified(this.paths.get(17), MTIME);
+            this.git.run("update-index", "--refresh");
+        }
+    }
+
+    @Test
+    public void heapFallbackOnWindows() throws IOException {
+        splitAndChange();
+        assertTrue(MappedIndex.open(this.git.getIndexFile()).isMapped());
+        final SystemReader original = SystemReader.getInstance();
+        SystemReader.setInstance(new WindowsSystemReader(original));
+        try {
+            final MappedIndex index = MappedIndex.open(this.git.getIndexFile());
+            assertFalse(index.isMapped());
+            assertFalse(index.getShared().isMapped());
+            assertEntries(index);
+        } finally {
+            SystemReader.setInstance(original);
+        }
+    }
+
+    /**
+     * Split the index, then replace, add and delete an entry.
+     */
+    private void splitAndChange() throws IOException {
+        this.git.run("update-index", "--split-index");
+        this.git.write("src/main/java/com/example/package0/Class03.java", "replaced\n");
+        this.git.write("src/main/java/com/example/package0/Added.java", "added\n");
+        this.git.run("add", "src/main/java/com/example/package0/Class03.java",
+                "src/main/java/com/example/package0/Added.java");
+        this.git.run("rm", "-q", "--cached", "src/main/java/com/example/package1/Class25.java");
+    }
+
+    /**
+     * Check the entries against {@code git ls-files -s}, and that every path is found at its position.
+     */
+    private void assertEntries(final MappedIndex index) throws IOException {
+        final StringBuilder files = new StringBuilder();
+        for (int i = 0; i < index.getEntryCount(); i++) {
+            final DirCacheEntry entry = index.getEntry(i);
+            files.append(format("%06o %s %d\t%s%n", entry.getRawMode(), entry.getObjectId().name(), entry.getStage(),
+                    entry.getPathString()));
+            assertEquals(entry.getPathString(), index.getPathString(i));
+            assertEquals(i, index.findEntry(entry.getPathString()));
+        }
+        assertEquals(this.git.run("ls-files", "-s"), files.toString());
+    }
+
+    private void setModified(final String path, final long seconds) throws IOException {
+        Files.setLastModifiedTime(new File(this.folder.getRoot(), path).toPath(), FileTime.fromMillis(seconds * 1000));
+    }
+
+    private static byte[] copy(final MappedIndex index, final int from, final int to) throws IOException {
+        return copy(index, from, to, 0);
+    }
+
+    private static byte[] copy(final MappedIndex index, final int from, final int to, final int now)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.copyEntries(new DataOutputStream(bytes), from, to, new byte[0], now);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Write an index file without extensions.
+     */
+    private static void writeIndex(final File file, final int version, final int count, final byte[] entries)
+            throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MappedIndex.SIGNATURE);
+        out.writeInt(version);
+        out.writeInt(count);
+        out.write(entries);
+        final MessageDigest digest = newMessageDigest();
+        out.write(digest.digest(bytes.toByteArray()));
+        Files.write(file.toPath(), bytes.toByteArray());
+    }
+}
@@ -0,0 +1,107 @@
+package com.cathive.git.autopush;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs the git executable on a working copy, so that tests can check the files autopush writes against git itself.
+ *
+ * @author Alexander Erben
+ */
+class NativeGit {
+
+    private final File workTree;
+
+    NativeGit(final File workTree) {
+        this.workTree = workTree;
+    }
+
+    /**
+     * @return true if a git executable is on the path
+     */
+    static boolean isAvailable() {
+        try {
+            return new ProcessBuilder("git", "--version").redirectErrorStream(true).start().waitFor() == 0;
+        } catch (final IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create a repository with the given files, each containing its own path, and commit them.
+     */
+    static NativeGit init(final File workTree, final String... paths) throws IOException {
+        final NativeGit git = new NativeGit(workTree);
+        git.run("init", "-q");
+        git.run("config", "user.name", "Test");
+        git.run("config", "user.email", "test@example.com");
+        git.run("config", "core.autocrlf", "false");
+        for (final String path : paths) {
+            git.write(path, path + "\n");
+        }
+        git.run("add", ".");
+        git.run("commit", "-q", "-m", "init");
+        return git;
+    }
+
+    File getWorkTree() {
+        return this.workTree;
+    }
+
+    File getIndexFile() {
+        return new File(this.workTree, ".git/index");
+    }
+
+    void write(final String path, final String content) throws IOException {
+        final File file = new File(this.workTree, path);
+        Files.createDirectories(file.getParentFile().toPath());
+        Files.write(file.toPath(), content.getBytes(UTF_8));
+    }
+
+    void delete(final String path) throws IOException {
+        Files.delete(new File(this.workTree, path).toPath());
+    }
+
+    /**
+     * @return the output of the command
+     * @throws IOException if the command fails
+     */
+    String run(final String... args) throws IOException {
+        final List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(Arrays.asList(args));
+        final Process process = new ProcessBuilder(command).directory(this.workTree).redirectErrorStream(true)
+                .start();
+        final String output;
+        try (InputStream in = process.getInputStream()) {
+            output = new String(ByteStreams.toByteArray(in), UTF_8);
+        }
+        try {
+            if (process.waitFor() != 0) {
+                throw new IOException(format("%s failed: %s", command, output));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+        return output;
+    }
+
+    /**
+     * @return the version in the header of the index file
+     */
+    int indexVersion() throws IOException {
+        final byte[] header = Arrays.copyOf(Files.readAllBytes(getIndexFile().toPath()), 8);
+        return ((header[4] & 0xff) << 24) | ((header[5] & 0xff) << 16) | ((header[6] & 0xff) << 8) | (header[7] & 0xff);
+    }
+}
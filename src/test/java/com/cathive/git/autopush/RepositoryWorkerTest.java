@@ -0,0 +1,90 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Runs of a worker against a remote repository created by git.
+ *
+ * @author Alexander Erben
+ */
+public class RepositoryWorkerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private NativeGit remote;
+
+    private NativeGit local;
+
+    private RepositoryWorker worker;
+
+    @Before
+    public void createRepositories() throws Exception {
+        assumeTrue(NativeGit.isAvailable());
+        final NativeGit origin = NativeGit.init(this.folder.newFolder("origin"), "a.txt");
+        this.remote = new NativeGit(this.folder.getRoot());
+        this.remote.run("clone", "-q", "--bare", origin.getWorkTree().getPath(), "remote.git");
+        this.local = clone("local");
+        this.worker = new RepositoryWorker(new RepositoryDefinition(this.local.getWorkTree().getPath(), "origin",
+                "master", "0 0 0 * * *"));
+        this.worker.setupRepository();
+        this.worker.setBackend(new JGitBackend(Git.wrap(this.worker.getRepository())));
+    }
+
+    @After
+    public void closeRepository() {
+        if (this.worker != null && this.worker.getRepository() != null) {
+            this.worker.getRepository().close();
+        }
+    }
+
+    @Test
+    public void pushesCommitsAheadOfTheRemote() throws IOException {
+        this.local.write("b.txt", "b\n");
+        this.worker.autopush();
+        assertEquals(head(this.local), remoteHead());
+    }
+
+    @Test
+    public void leavesDivergedRemoteAlone() throws IOException {
+        final NativeGit other = clone("other");
+        other.write("c.txt", "c\n");
+        other.run("add", "c.txt");
+        other.run("commit", "-q", "-m", "other");
+        other.run("push", "-q", "origin", "master");
+        this.local.write("b.txt", "b\n");
+        this.worker.autopush();
+        this.local.write("b.txt", "changed\n");
+        this.worker.autopush();
+        assertEquals(head(other), remoteHead());
+        assertNotEquals(head(other), head(this.local));
+    }
+
+    private NativeGit clone(final String name) throws IOException {
+        this.remote.run("clone", "-q", "remote.git", name);
+        final NativeGit clone = new NativeGit(new File(this.folder.getRoot(), name));
+        clone.run("config", "user.name", "Test");
+        clone.run("config", "user.email", "test@example.com");
+        return clone;
+    }
+
+    private static String head(final NativeGit git) throws IOException {
+        return git.run("rev-parse", "HEAD").trim();
+    }
+
+    private String remoteHead() throws IOException {
+        return this.remote.run("--git-dir", "remote.git", "rev-parse", "master").trim();
+    }
+}
@@ -0,0 +1,72 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.api.errors.TransportException;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Alexander Erben
+ */
+public class RetryPolicyTest {
+
+    @Test
+    public void runtimeExceptionOfProbeReopensCircuitBreaker() throws Exception {
+        final CircuitBreaker breaker = new CircuitBreaker("origin", 1, 0);
+        try {
+            RetryPolicy.NONE.execute("Fetch", breaker, () -> {
+                throw new TransportException("unreachable");
+            });
+            fail();
+        } catch (final TransportException expected) {
+            // the breaker is open now, and half-open at the next attempt
+        }
+        try {
+            RetryPolicy.NONE.execute("Fetch", breaker, () -> {
+                throw new IllegalStateException("bug");
+            });
+            fail();
+        } catch (final IOException e) {
+            assertThat(e, not(instanceOf(CircuitBreaker.OpenException.class)));
+            assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+        }
+        final AtomicInteger probes = new AtomicInteger();
+        RetryPolicy.NONE.execute("Fetch", breaker, probes::incrementAndGet);
+        assertEquals(1, probes.get());
+    }
+
+    @Test
+    public void schedulesRetryInsteadOfWaiting() throws Exception {
+        final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.initialize();
+        try {
+            final CountDownLatch retried = new CountDownLatch(1);
+            final RetryPolicy policy = new RetryPolicy(2, 100, 100, scheduler, retried::countDown);
+            final CircuitBreaker breaker = new CircuitBreaker("origin", 10, 0);
+            for (int attempt = 1; attempt <= 2; attempt++) {
+                try {
+                    policy.execute("Push", breaker, () -> {
+                        throw new TransportException("unreachable");
+                    });
+                    fail();
+                } catch (final TransportException expected) {
+                    // the first attempt schedules the retry, the second one is the last
+                }
+            }
+            assertTrue(retried.await(10, TimeUnit.SECONDS));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.util.SystemReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * @author Alexander Erben
+ */
+public class StatCacheTest {
+
+    private static final ObjectId FIRST = ObjectId.fromString("0123456789012345678901234567890123456789");
+
+    private static final ObjectId SECOND = ObjectId.fromString("9876543210987654321098765432109876543210");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Repository repository;
+
+    @Before
+    public void createRepository() throws IOException {
+        assumeTrue(NativeGit.isAvailable());
+        NativeGit.init(this.folder.getRoot(), "a.txt", "b.txt");
+        for (final String path : new String[] {"a.txt", "b.txt"}) {
+            Files.setLastModifiedTime(new File(this.folder.getRoot(), path).toPath(),
+                    FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        }
+        this.repository = new FileRepositoryBuilder().setWorkTree(this.folder.getRoot()).setMustExist(true).setup()
+                .build();
+    }
+
+    @After
+    public void closeRepository() {
+        if (this.repository != null) {
+            this.repository.close();
+        }
+    }
+
+    @Test
+    public void savedRecordsSurviveRestart() throws IOException {
+        final StatCache cache = new StatCache(this.repository);
+        cache.record("a.txt", attributes("a.txt"), FIRST);
+        cache.save();
+        cache.record("b.txt", attributes("b.txt"), SECOND);
+        cache.save();
+        final StatCache restarted = new StatCache(this.repository);
+        restarted.load();
+        assertEquals(FIRST, restarted.lookup("a.txt", attributes("a.txt")));
+        assertEquals(SECOND, restarted.lookup("b.txt", attributes("b.txt")));
+    }
+
+    @Test
+    public void savesOverLoadedFileOnWindows() throws IOException {
+        final SystemReader original = SystemReader.getInstance();
+        SystemReader.setInstance(new WindowsSystemReader(original));
+        try {
+            savedRecordsSurviveRestart();
+        } finally {
+            SystemReader.setInstance(original);
+        }
+    }
+
+    @Test
+    public void failedSaveDropsAddedRecords() throws IOException {
+        final StatCache cache = new StatCache(this.repository);
+        cache.record("a.txt", attributes("a.txt"), FIRST);
+        final File index = this.repository.getIndexFile();
+        Files.write(index.toPath(), new byte[] {1, 2, 3});
+        try {
+            cache.save();
+            fail();
+        } catch (final IOException expected) {
+            // the index is invalid
+        }
+        assertNull(cache.lookup("a.txt", attributes("a.txt")));
+    }
+
+    private BasicFileAttributes attributes(final String path) throws IOException {
+        return Files.readAttributes(new File(this.folder.getRoot(), path).toPath(), BasicFileAttributes.class,
+                NOFOLLOW_LINKS);
+    }
+}
@@ -0,0 +1,60 @@
+package com.cathive.git.autopush;
+
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.SystemReader;
+
+/**
+ * Pretends to run on Windows, and answers everything else like the reader it replaces.
+ *
+ * @author Alexander Erben
+ */
+class WindowsSystemReader extends SystemReader {
+
+    private final SystemReader delegate;
+
+    WindowsSystemReader(final SystemReader delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean isWindows() {
+        return true;
+    }
+
+    @Override
+    public String getHostname() {
+        return this.delegate.getHostname();
+    }
+
+    @Override
+    public String getenv(final String variable) {
+        return this.delegate.getenv(variable);
+    }
+
+    @Override
+    public String getProperty(final String key) {
+        return this.delegate.getProperty(key);
+    }
+
+    @Override
+    public FileBasedConfig openUserConfig(final Config parent, final FS fs) {
+        return this.delegate.openUserConfig(parent, fs);
+    }
+
+    @Override
+    public FileBasedConfig openSystemConfig(final Config parent, final FS fs) {
+        return this.delegate.openSystemConfig(parent, fs);
+    }
+
+    @Override
+    public long getCurrentTime() {
+        return this.delegate.getCurrentTime();
+    }
+
+    @Override
+    public int getTimezone(final long when) {
+        return this.delegate.getTimezone(when);
+    }
+}